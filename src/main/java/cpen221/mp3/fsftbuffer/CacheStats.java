@@ -0,0 +1,146 @@
+package cpen221.mp3.fsftbuffer;
+
+public final class CacheStats {
+
+    //CacheStats
+
+    //Abstraction Function
+    /*
+    A CacheStats is a snapshot of the counters of an FSFTBuffer at one point in time. "hitCount" and "missCount" count
+    the lookups that found and did not find an object. "loadSuccessCount" and "loadFailureCount" count the loads done
+    by getOrLoad and getOrLoadAsync (including refreshes) that produced an object, and those that threw or produced
+    null, and "totalLoadTime" is the time spent in all of those loads, in nanoseconds. The eviction counts are the
+    number of objects that left the buffer for each RemovalCause other than REPLACED.
+     */
+
+    //Representation Invariants
+    /*
+    Every count and totalLoadTime is >= 0.
+     */
+
+    //Thread Safety Arguments
+    /*
+    Immutability - every field is private and final.
+     */
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long sizeEvictionCount;
+    private final long expiredEvictionCount;
+    private final long explicitEvictionCount;
+
+    /**
+     * Creates a snapshot of the given counts, which must all be >= 0.
+     */
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+                      long totalLoadTime, long sizeEvictionCount, long expiredEvictionCount,
+                      long explicitEvictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.sizeEvictionCount = sizeEvictionCount;
+        this.expiredEvictionCount = expiredEvictionCount;
+        this.explicitEvictionCount = explicitEvictionCount;
+    }
+
+    /**
+     * @return the number of lookups that found the object they were looking for
+     */
+    public long hitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return the number of lookups that did not find the object they were looking for
+     */
+    public long missCount() {
+        return this.missCount;
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, or 1 if there have been no lookups
+     */
+    public double hitRate() {
+        long requests = this.hitCount + this.missCount;
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    /**
+     * @return the number of loads that produced an object
+     */
+    public long loadSuccessCount() {
+        return this.loadSuccessCount;
+    }
+
+    /**
+     * @return the number of loads that threw an exception or produced null
+     */
+    public long loadFailureCount() {
+        return this.loadFailureCount;
+    }
+
+    /**
+     * @return the total time spent loading objects, in nanoseconds
+     */
+    public long totalLoadTime() {
+        return this.totalLoadTime;
+    }
+
+    /**
+     * @return the average time spent in one load, in nanoseconds, or 0 if there have been no loads
+     */
+    public double averageLoadPenalty() {
+        long loads = this.loadSuccessCount + this.loadFailureCount;
+        return loads == 0 ? 0.0 : (double) this.totalLoadTime / loads;
+    }
+
+    /**
+     * @param cause why objects left the buffer
+     * @return the number of objects that left the buffer because of {@code cause}, which is always 0 for REPLACED
+     */
+    public long evictionCount(RemovalCause cause) {
+        switch (cause) {
+            case SIZE:
+                return this.sizeEvictionCount;
+            case EXPIRED:
+                return this.expiredEvictionCount;
+            case EXPLICIT:
+                return this.explicitEvictionCount;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the number of objects that left the buffer for any reason other than being replaced
+     */
+    public long evictionCount() {
+        return this.sizeEvictionCount + this.expiredEvictionCount + this.explicitEvictionCount;
+    }
+
+    /**
+     * @param other the statistics of another buffer
+     * @return the sum of these statistics and {@code other}
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(this.hitCount + other.hitCount, this.missCount + other.missCount,
+            this.loadSuccessCount + other.loadSuccessCount, this.loadFailureCount + other.loadFailureCount,
+            this.totalLoadTime + other.totalLoadTime, this.sizeEvictionCount + other.sizeEvictionCount,
+            this.expiredEvictionCount + other.expiredEvictionCount,
+            this.explicitEvictionCount + other.explicitEvictionCount);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hitCount=" + this.hitCount + ", missCount=" + this.missCount
+            + ", loadSuccessCount=" + this.loadSuccessCount + ", loadFailureCount=" + this.loadFailureCount
+            + ", totalLoadTime=" + this.totalLoadTime + ", sizeEvictionCount=" + this.sizeEvictionCount
+            + ", expiredEvictionCount=" + this.expiredEvictionCount
+            + ", explicitEvictionCount=" + this.explicitEvictionCount + "}";
+    }
+}
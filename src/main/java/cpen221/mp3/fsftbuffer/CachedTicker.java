@@ -0,0 +1,77 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class CachedTicker implements Ticker, AutoCloseable {
+
+    //CachedTicker
+
+    //Abstraction Function
+    /*
+    Represents a coarse-grained clock. A background task reads the Ticker "source" every "period" on the single daemon
+    thread owned by "executor", and stores the reading in "now". Reading a CachedTicker only returns "now", which is a
+    plain volatile read instead of a call to the system clock, at the cost of being up to one period behind the
+    source.
+     */
+
+    //Representation Invariant
+    /*
+    now is a reading of source that was taken at most about one period ago, while the ticker is open.
+     */
+
+    //Thread Safety Arguments
+    /*
+    now is volatile and only written by the thread of executor, so every reader sees the latest reading. The other
+    fields are final.
+     */
+
+    /* the default time between two readings of the source, in milliseconds */
+    public static final long DPERIOD_MILLIS = 1;
+
+    private final Ticker source;
+    private final ScheduledExecutorService executor;
+    private volatile long now;
+
+    /**
+     * Starts reading {@code source} in the background.
+     * @param source    the ticker to read, not null
+     * @param period    the time between two readings, > 0
+     * @param unit      the unit of {@code period}
+     */
+    public CachedTicker(Ticker source, long period, TimeUnit unit){
+        this.source = source;
+        this.now = source.read();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cached-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleAtFixedRate(() -> this.now = this.source.read(), period, period, unit);
+    }
+
+    /**
+     * Starts reading {@code source} in the background every DPERIOD_MILLIS milliseconds.
+     * @param source    the ticker to read, not null
+     */
+    public CachedTicker(Ticker source){
+        this(source, DPERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the latest reading of the source
+     */
+    @Override
+    public long read(){
+        return this.now;
+    }
+
+    /**
+     * Stops reading the source. Afterwards, read keeps returning the last reading.
+     */
+    @Override
+    public void close(){
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,405 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+public class ConcurrentFSFTBuffer<T extends Bufferable> {
+
+    //ConcurrentFSFTBuffer
+
+    //Abstraction Function
+    /*
+    A ConcurrentFSFTBuffer is a finite-time and finite-space buffer that is split into a number of independent
+    FSFTBuffers called "segments". An object lives in exactly one segment, chosen from the hash of its id, so two
+    operations on objects in different segments never wait for each other. Each segment holds at most
+    ceil(capacity / segments.length) objects and applies the least recently used and timeout rules of an FSFTBuffer
+    to its own objects only. The buffer as a whole therefore behaves like an FSFTBuffer whose capacity is
+    approximately "capacity", and whose least recently used object is only chosen among the objects of one segment.
+     */
+
+    //Representation Invariants
+    /*
+    1. segments.length is a power of two, and no greater than capacity (when capacity > 0).
+    2. An object with id x is only ever stored in segments[segmentFor(x)].
+    3. The sum of the sizes of the segments never exceeds segments.length * ceil(capacity / segments.length).
+     */
+
+    //Thread Safety Arguments
+    /*
+    The segments array and its contents are final and never reassigned, and every segment is a thread safe FSFTBuffer.
+    Each method only touches the segment that owns the given id, except getCurrentObjects and size, which combine the
+    segments one after the other and are therefore only a best-effort view while other threads are writing.
+     */
+
+    /* the default number of segments per available processor */
+    public static final int SEGMENTS_PER_CORE = 4;
+
+    private final FSFTBuffer<T>[] segments;
+
+    /**
+     * Create a segmented buffer with a fixed capacity and a timeout value.
+     *
+     * @param capacity          the total number of objects the buffer can hold
+     * @param timeout           the duration, in seconds, an object should
+     *                          be in the buffer before it times out
+     * @param concurrencyLevel  the number of threads expected to use the buffer at once, > 0. The buffer is split into
+     *                          the smallest power of two of segments that is at least this large, but never into more
+     *                          segments than it has capacity.
+     */
+    public ConcurrentFSFTBuffer(int capacity, int timeout, int concurrencyLevel) {
+        this(capacity, timeout, concurrencyLevel, Ticker.systemTicker());
+    }
+
+    /**
+     * Create a segmented buffer with a fixed capacity and a timeout value, whose segments measure time with
+     * {@code ticker}.
+     *
+     * @param capacity          the total number of objects the buffer can hold
+     * @param timeout           the duration, in seconds, an object should
+     *                          be in the buffer before it times out
+     * @param concurrencyLevel  the number of threads expected to use the buffer at once, > 0
+     * @param ticker            the clock shared by all the segments, see FSFTBuffer.Builder.ticker
+     */
+    public ConcurrentFSFTBuffer(int capacity, int timeout, int concurrencyLevel, Ticker ticker) {
+        int segmentCount = 1;
+        while(segmentCount < concurrencyLevel && segmentCount * 2 <= capacity){
+            segmentCount *= 2;
+        }
+
+        int segmentCapacity = capacity <= 0 ? capacity : (capacity + segmentCount - 1) / segmentCount;
+        this.segments = newSegmentArray(segmentCount);
+        for(int i = 0; i < segmentCount; i++){
+            this.segments[i] = new FSFTBuffer.Builder<T>()
+                .capacity(segmentCapacity).timeout(timeout).ticker(ticker).build();
+        }
+    }
+
+    /**
+     * Create a segmented buffer with a fixed capacity and a timeout value, using
+     * SEGMENTS_PER_CORE segments for every available processor.
+     *
+     * @param capacity the total number of objects the buffer can hold
+     * @param timeout  the duration, in seconds, an object should
+     *                 be in the buffer before it times out
+     */
+    public ConcurrentFSFTBuffer(int capacity, int timeout) {
+        this(capacity, timeout, SEGMENTS_PER_CORE * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a segmented buffer with default capacity and timeout values.
+     */
+    public ConcurrentFSFTBuffer() {
+        this(FSFTBuffer.DSIZE, FSFTBuffer.DTIMEOUT);
+    }
+
+    /**
+     * Add a value to the buffer. If the segment that the value belongs to is full then the least recently accessed
+     * object of that segment is removed to make room for the new object.
+     *
+     * @return true, if the buffer has valid timeout and timeout times, false if not.
+     */
+    public boolean put(T t) {
+        return this.segmentFor(t.id()).put(t);
+    }
+
+    /**
+     * Add a value to the buffer that times out after {@code ttl} instead of after the timeout of the buffer.
+     *
+     * @param t     the object to add
+     * @param ttl   how long the object may stay in the buffer, > 0
+     * @return true if {@code t} was added, see FSFTBuffer.put(T, Duration)
+     */
+    public boolean put(T t, Duration ttl) {
+        return this.segmentFor(t.id()).put(t, ttl);
+    }
+
+    /**
+     * Adds every object of {@code objects} to the segment that owns it, with one putAll per segment, see
+     * FSFTBuffer.putAll.
+     * @return the number of objects that were added
+     */
+    public int putAll(Collection<? extends T> objects) {
+        List<T>[] perSegment = newListArray(this.segments.length);
+        for(T t : objects){
+            int i = this.segmentIndex(t.id());
+            if(perSegment[i] == null){
+                perSegment[i] = new ArrayList<>();
+            }
+            perSegment[i].add(t);
+        }
+
+        int added = 0;
+        for(int i = 0; i < this.segments.length; i++){
+            if(perSegment[i] != null){
+                added += this.segments[i].putAll(perSegment[i]);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Retrives an object from the buffer based on its id, throws a NoSuchElementException if the object is not found.
+     * @param id    The id of the desired object from the buffer
+     * @return      The desired object inside the buffer.
+     * @throws NoSuchElementException   if no Bufferable inside the buffer has the id passed as the parameter in the
+     *                                  method.
+     */
+    public T get(String id) throws NoSuchElementException {
+        return this.segmentFor(id).get(id);
+    }
+
+    /**
+     * Retrieves an object from the buffer based on its id, or null if it is not in the buffer.
+     * @param id    The id of the desired object from the buffer
+     * @return      The desired object inside the buffer, or null.
+     */
+    public T getIfPresent(String id) {
+        return this.segmentFor(id).getIfPresent(id);
+    }
+
+    /**
+     * Retrieves an object from the buffer, loading it once if it is missing. See FSFTBuffer.getOrLoad.
+     */
+    public T getOrLoad(String id, Function<String, ? extends T> loader) {
+        return this.segmentFor(id).getOrLoad(id, loader);
+    }
+
+    /**
+     * Retrieves an object from the buffer, loading it once if it is missing and refreshing it with
+     * {@code reloader}. See FSFTBuffer.getOrLoad(String, Function, Function).
+     */
+    public T getOrLoad(String id, Function<String, ? extends T> loader, Function<String, ? extends T> reloader) {
+        return this.segmentFor(id).getOrLoad(id, loader, reloader);
+    }
+
+    /**
+     * Asynchronously retrieves an object from the buffer, loading it once on {@code executor} if it is missing.
+     * See FSFTBuffer.getOrLoadAsync.
+     */
+    public CompletableFuture<T> getOrLoadAsync(String id, Function<String, ? extends T> loader, Executor executor) {
+        return this.segmentFor(id).getOrLoadAsync(id, loader, executor);
+    }
+
+    /**
+     * Retrieves every object of {@code ids} that is in the buffer, with one getAll per segment, see
+     * FSFTBuffer.getAll.
+     * @return the objects that are in the buffer, by id, in the order of {@code ids}
+     */
+    public Map<String, T> getAll(Collection<String> ids) {
+        List<String>[] perSegment = newListArray(this.segments.length);
+        for(String id : ids){
+            int i = this.segmentIndex(id);
+            if(perSegment[i] == null){
+                perSegment[i] = new ArrayList<>();
+            }
+            perSegment[i].add(id);
+        }
+
+        Map<String, T> found = new HashMap<>();
+        for(int i = 0; i < this.segments.length; i++){
+            if(perSegment[i] != null){
+                found.putAll(this.segments[i].getAll(perSegment[i]));
+            }
+        }
+
+        Map<String, T> result = new LinkedHashMap<>();
+        for(String id : ids){
+            T value = found.get(id);
+            if(value != null){
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves every object of {@code ids}, loading all of the ones that are missing from any segment with a single
+     * call to {@code batchLoader}, and adding them with putAll. Unlike FSFTBuffer.getAllOrLoad, ids that another
+     * thread is loading at the same time may be loaded twice.
+     * @return the objects, by id, in the order of {@code ids}. Ids that were not loaded are left out.
+     */
+    public Map<String, T> getAllOrLoad(Collection<String> ids,
+                                       Function<? super Set<String>, ? extends Map<String, ? extends T>> batchLoader) {
+        Map<String, T> found = this.getAll(ids);
+        Set<String> missing = new LinkedHashSet<>(ids);
+        missing.removeAll(found.keySet());
+        if(missing.isEmpty()){
+            return found;
+        }
+
+        Map<String, ? extends T> loaded = batchLoader.apply(Collections.unmodifiableSet(missing));
+        List<T> objects = new ArrayList<>();
+        if(loaded != null){
+            for(String id : missing){
+                T value = loaded.get(id);
+                if(value != null){
+                    objects.add(value);
+                    found.put(id, value);
+                }
+            }
+        }
+        this.putAll(objects);
+
+        Map<String, T> result = new LinkedHashMap<>();
+        for(String id : ids){
+            T value = found.get(id);
+            if(value != null){
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Update the last refresh time for the object with the provided id.
+     *
+     * @param id the identifier of the object to "touch"
+     * @return true if successful and false if the object is not currently stored in the buffer.
+     */
+    public boolean touch(String id) {
+        return this.segmentFor(id).touch(id);
+    }
+
+    /**
+     * Update an object in the buffer, which acts like a "touch" to renew the object in the cache.
+     *
+     * @param t the object to update
+     * @return true if the object is within the buffer and false otherwise
+     */
+    public boolean update(T t) {
+        return this.segmentFor(t.id()).update(t);
+    }
+
+    /**
+     * Removes the object with the provided id from the buffer, if it is there.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if the object was in the buffer, false otherwise
+     */
+    public boolean invalidate(String id) {
+        return this.segmentFor(id).invalidate(id);
+    }
+
+    /**
+     * Reads the statistics of the buffer, see FSFTBuffer.stats.
+     * @return the sum of the statistics of all of the segments
+     */
+    public CacheStats stats() {
+        CacheStats stats = this.segments[0].stats();
+        for(int i = 1; i < this.segments.length; i++){
+            stats = stats.plus(this.segments[i].stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Copies the live objects of every segment, see FSFTBuffer.snapshot. The objects of each segment are in access
+     * order, one segment after the other.
+     */
+    public List<FSFTBuffer.SnapshotEntry<T>> snapshot() {
+        List<FSFTBuffer.SnapshotEntry<T>> entries = new ArrayList<>();
+        for(FSFTBuffer<T> segment : this.segments){
+            entries.addAll(segment.snapshot());
+        }
+        return entries;
+    }
+
+    /**
+     * Adds the objects of a snapshot to the segments that own them, keeping their order within each segment, see
+     * FSFTBuffer.restore.
+     * @return the number of entries that were added
+     */
+    public int restore(List<FSFTBuffer.SnapshotEntry<T>> entries) {
+        List<FSFTBuffer.SnapshotEntry<T>>[] perSegment = newListArray(this.segments.length);
+        for(int i = 0; i < perSegment.length; i++){
+            perSegment[i] = new ArrayList<>();
+        }
+        for(FSFTBuffer.SnapshotEntry<T> entry : entries){
+            perSegment[this.segmentIndex(entry.value().id())].add(entry);
+        }
+
+        int restored = 0;
+        for(int i = 0; i < this.segments.length; i++){
+            restored += this.segments[i].restore(perSegment[i]);
+        }
+        return restored;
+    }
+
+    /**
+     * Removes every object that has timed out from every segment.
+     */
+    public void cleanUp() {
+        for(FSFTBuffer<T> segment : this.segments){
+            segment.cleanUp();
+        }
+    }
+
+    /**
+     * Testing method for the ConcurrentFSFTBuffer.
+     * @return  The set of all of the current objects currently stored inside of the buffer.
+     */
+    public Set<T> getCurrentObjects() {
+        Set<T> objects = new HashSet<>();
+        for(FSFTBuffer<T> segment : this.segments){
+            objects.addAll(segment.getCurrentObjects());
+        }
+        return objects;
+    }
+
+    /**
+     * Retrieves the current size of the buffer.
+     * @return  The sum of the sizes of all of the segments.
+     */
+    public int size() {
+        int size = 0;
+        for(FSFTBuffer<T> segment : this.segments){
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Helper method which finds the segment that owns an id. The hash is spread so that ids whose hashes only differ
+     * in the high bits still land in different segments.
+     */
+    private FSFTBuffer<T> segmentFor(String id) {
+        return this.segments[this.segmentIndex(id)];
+    }
+
+    private int segmentIndex(String id) {
+        int hash = id.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (this.segments.length - 1);
+    }
+
+    /**
+     * Helper method which makes an array of segments. Java cannot create an array of a generic type, so the array is
+     * made with a wildcard and cast; it only ever holds FSFTBuffer<T>.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Bufferable> FSFTBuffer<T>[] newSegmentArray(int length) {
+        return (FSFTBuffer<T>[]) new FSFTBuffer<?>[length];
+    }
+
+    /**
+     * Helper method which makes an array of lists, one for each segment, in the same way as newSegmentArray.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> List<E>[] newListArray(int length) {
+        return (List<E>[]) new List<?>[length];
+    }
+}
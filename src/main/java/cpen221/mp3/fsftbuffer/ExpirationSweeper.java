@@ -0,0 +1,54 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ExpirationSweeper implements AutoCloseable {
+
+    //ExpirationSweeper
+
+    //Abstraction Function
+    /*
+    Represents a background task which periodically removes the timed out objects from one FSFTBuffer, so that a
+    buffer which is not being used does not keep holding on to objects that can never be returned again. The task runs
+    every "period" on the single daemon thread owned by "executor", until the sweeper is closed.
+     */
+
+    //Representation Invariant
+    /*
+    executor is not null and runs at most one sweep at a time.
+     */
+
+    //Thread Safety Arguments
+    /*
+    The only field is final, and each sweep calls FSFTBuffer.cleanUp, which only removes objects while holding the
+    ReentrantLock of the buffer, the same lock that every other method which mutates the buffer holds. A sweep
+    therefore never runs at the same time as another change to the buffer.
+     */
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Starts sweeping timed out objects out of {@code buffer}.
+     * @param buffer    the buffer to sweep, not null
+     * @param period    the time between two sweeps, > 0
+     * @param unit      the unit of {@code period}
+     */
+    public ExpirationSweeper(FSFTBuffer<?> buffer, long period, TimeUnit unit){
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fsftbuffer-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(buffer::cleanUp, period, period, unit);
+    }
+
+    /**
+     * Stops sweeping. The buffer itself is left untouched.
+     */
+    @Override
+    public void close(){
+        this.executor.shutdownNow();
+    }
+}
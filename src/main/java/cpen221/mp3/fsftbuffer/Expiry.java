@@ -0,0 +1,40 @@
+package cpen221.mp3.fsftbuffer;
+
+public interface Expiry<T> {
+
+    /**
+     * Computes how long a new object may stay in an FSFTBuffer before it times out.
+     *
+     * @param t             the object that was put into the buffer, not null
+     * @param currentTime   the current reading of the buffer's Ticker, in nanoseconds
+     * @return the time, in nanoseconds, until {@code t} times out
+     */
+    long expireAfterCreate(T t, long currentTime);
+
+    /**
+     * Computes how long an object may stay in an FSFTBuffer after it has been replaced by a put, updated or touched.
+     * By default this is the same as for a new object.
+     *
+     * @param t                 the new object, not null
+     * @param currentTime       the current reading of the buffer's Ticker, in nanoseconds
+     * @param currentDuration   the time, in nanoseconds, that was left before the old object would have timed out
+     * @return the time, in nanoseconds, until {@code t} times out
+     */
+    default long expireAfterUpdate(T t, long currentTime, long currentDuration) {
+        return this.expireAfterCreate(t, currentTime);
+    }
+
+    /**
+     * Computes how long an object may stay in an FSFTBuffer after it has been read. By default reading an object
+     * does not change when it times out.
+     *
+     * @param t                 the object that was read, not null
+     * @param currentTime       the current reading of the buffer's Ticker, in nanoseconds
+     * @param currentDuration   the time, in nanoseconds, that is left before {@code t} times out
+     * @return the time, in nanoseconds, until {@code t} times out
+     */
+    default long expireAfterRead(T t, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+}
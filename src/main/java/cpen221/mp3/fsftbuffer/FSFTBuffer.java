@@ -1,8 +1,18 @@
 package cpen221.mp3.fsftbuffer;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class FSFTBuffer<T extends Bufferable> {
 
@@ -10,26 +20,88 @@ public class FSFTBuffer<T extends Bufferable> {
 
     //Abstraction Function
     /*
-    The FSFTBuffer is a form of a finite-time and finite-space buffer. It uses a HashMap called "buffer" which stores
-    a Bufferable object, which is any object that has a String field that give it a unique id. Each entry into the
-    buffer map is a key-value pair where the key is the Bufferable object, and the value is a TimePair. The TimePair
-    stores the access time and the expiry time of its keyed object. More details on the TimePair class can be found
-    in the TimePair abstraction function in the TimePair class. Aside from the HashMap called "buffer", the FSFTBuffer
-    also has two other fields, an integer "capacity" which is the FSFTBuffer's maximum number of objects that it can
-    store, and another integer "timeout" which is the number of seconds that an object can remain in the buffer without
-    that object being refreshed. There also exist two static fields, called "DSIZE" and "DTIMEOUT" which respectivley
-    are default values for the capacity and timeout of the buffer. They are used when a new FSFTBuffer is declared
-    without specified capacity or size.
+    The FSFTBuffer is a form of a finite-time and finite-space buffer. It uses a ConcurrentHashMap called "index" which
+    maps the id of every stored Bufferable object (any object that has a String field that give it a unique id) to a
+    Node. A Node holds the stored object together with its "accessTime", the last time it was put or read, its
+    "generationTime", the last time it was put, touched or updated, and "expiresAt", the time after which it has timed
+    out, all as readings of the Ticker "ticker" (by default System.nanoTime()). "ttl" is the time an object may stay in
+    the buffer after it is touched or updated: the timeout of the buffer, unless the object was put with its own time
+    to live. The times are kept in primitive fields of the Node, so that recording an access does not allocate
+    anything. Every operation reads the ticker once, when it cleans the buffer, and keeps the result in "operationTime"
+    for the rest of the operation.
+
+    Every Node is also linked into a doubly linked "access order" list, which starts and ends at the sentinel Node
+    "head". The node directly after head is the least recently accessed object, and the node directly before head is
+    the most recently accessed object. Because each Node knows its own neighbours, an object can be moved to the most
+    recently used end, or unlinked from the list, in constant time.
+
+    Every Node is also in exactly one of two expiry order structures. A Node whose expiresAt was last set to the time
+    at which it was set plus the timeout of the buffer is linked into the doubly linked "expiry order" list, which
+    starts and ends at the sentinel Node "writeHead". Since these nodes all got the same timeout, the order in which
+    they were appended is also the order in which they expire, so the node directly after writeHead is always the next
+    of them to time out, and appending and removing a node takes constant time. Every other Node (one that was put
+    with its own time to live, was restored from a snapshot, or whose time to live was chosen by the Expiry "expiry")
+    is in "heap", a binary min-heap ordered by expiresAt, whose first "heapSize" elements are in use, and in which a
+    Node's "heapIndex" is its position (-1 when it is not in the heap). Adding, moving and removing a node in the heap
+    takes O(log n) time. Removing timed out objects therefore only ever looks at the front of the list and the root of
+    the heap.
+
+    When "sketch" is not null, the buffer uses an admission filter, and the access order is split into two lists. New
+    objects are first linked into the small "window" list, which starts and ends at the sentinel Node "windowHead" and
+    holds at most windowCapacity objects (and windowMaximumWeight weight). The rest of the objects are in the "main"
+    list that starts at head. An object that falls out of the window becomes a candidate for the main list, and when
+    the buffer is full, it only takes the place of the least recently used object of the main list if the
+    FrequencySketch "sketch" estimates that it has been used more often recently. Otherwise the candidate is removed
+    instead. A Node's "inWindow" flag says which of the two lists it is in. When sketch is null, the window is always
+    empty and the main list is the whole access order.
+
+    When "bufferedReads" is true, get does not move the object it returns itself. Instead, it records the Node in the
+    ReadBuffer "readBuffer", and the recorded Nodes are moved to the most recently used end of the access order list
+    in batches, the next time a thread holds the lock. In this mode the access order list is only approximately the
+    order in which the objects were read.
+
+    The ConcurrentHashMap "loading" maps the id of every object that is currently being loaded by getOrLoad or
+    getOrLoadAsync to the future result of that load, so that every caller that misses on the same id while it is
+    being loaded waits for the same result instead of starting another load.
+
+    When "refreshFraction" is greater than 0, an object that getOrLoad or getOrLoadAsync finds in the buffer after
+    refreshFraction of its ttl has passed since its generation time is "refreshed": it is returned as usual, and its
+    loader (or the reloader given to getOrLoad for refreshes) is run again on "refreshExecutor" to put a fresh
+    object in its place, unless a load of the same id is already running. The refresh is registered in "loading"
+    like any other load.
+
+    When "removalListener" is not null, every object that leaves the buffer, and why it left, is added to the queue
+    "pendingRemovals" while the lock is held, and the queue is handed to the listener each time the lock is released.
+
+    The LongAdders "hits", "misses", "loadSuccesses", "loadFailures" and "loadTime" count the lookups and loads of the
+    buffer, and "sizeEvictions", "expiredEvictions" and "explicitEvictions" count the removed objects by cause. They are
+    only ever added to, and stats() reads them into a CacheStats.
+
+    Aside from the index and the lists, the FSFTBuffer also has an integer "capacity" which is the FSFTBuffer's maximum
+    number of objects that it can store, and another integer "timeout" which is the number of seconds that an object
+    can remain in the buffer without that object being refreshed. Every Node also stores the "weight" that the
+    Weigher "weigher" gave to its object, "totalWeight" is the sum of the weights of all of the Nodes, and
+    "maximumWeight" is the largest that totalWeight may be. Unless a Weigher is given, every object weighs 0 and the
+    buffer is only limited by its capacity. There also exist two static
+    fields, called "DSIZE" and "DTIMEOUT" which respectivley are default values for the capacity and timeout of the
+    buffer. They are used when a new FSFTBuffer is declared without specified capacity or size.
      */
 
     //Representation Invariants
     /*
     An FSFTBuffer has multiple representation invariants.
 
-    1. buffer.size() may never exceed capacity.
-    2. No object within the buffer map may have an expiry time larger greater than the current time of the system.
-    3. All objects stored within the buffer must be not-null and extend Bufferable.
-    4. Each Bufferable object stored in the FSFTBuffer as a key must have a corresponding TimePair as a value.
+    1. index.size() may never exceed capacity, and totalWeight may never exceed maximumWeight.
+    2. All objects stored within the buffer must be not-null and extend Bufferable.
+    3. Each Node in the index must be keyed by the id of the object it holds.
+    4. The window and main access order lists together contain exactly the Nodes of the index, each once, and each of
+       them is ordered by non-decreasing access time (as of the last time the read buffer was drained).
+    5. The expiry order list and the heap together contain exactly the Nodes of the index, each once. The list is
+       ordered by non-decreasing expiresAt, every Node in the heap expires no earlier than its parent, and
+       heap[node.heapIndex] == node for every Node in the heap.
+    6. totalWeight is the sum of the weights of the Nodes in the index, and every weight is >= 0.
+    7. windowSize and windowWeight are the number and the total weight of the Nodes in the window list, and the window
+       list is empty if sketch is null.
      */
 
     //Thread Safety Arguments
@@ -37,34 +109,95 @@ public class FSFTBuffer<T extends Bufferable> {
     /*
     This class is thread safe for two main reasons.
 
-    Immutability -  The fields DSIZE, DTIMEOUT, capacity, and timeout are all final, and capacity and timeout are also
-                    private.
+    Immutability -  The fields DSIZE, DTIMEOUT, capacity, timeout, maximumWeight, weigher, bufferedReads,
+                    refreshFraction, refreshExecutor, expiry, ticker, windowCapacity and windowMaximumWeight are all final, and
+                    all but DSIZE and DTIMEOUT are also private. The ticker must itself be thread safe.
+
+    Locking -   Although the contents of the index and of both lists are mutated by the various methods within an
+                FSFTBuffer, every method which may mutate the contents of the FSFTBuffer only does so while holding
+                "lock", thus safeguarding against errors arising due to multithreading. totalWeight, the window
+                counters, operationTime and the sketch are also only read and written while holding the lock. Nodes
+                are never exposed outside of the buffer.
+
+    Statistics -    The counters are LongAdders, which many threads can add to at once without contending on a single
+                    value. A CacheStats is built from them without the lock, so its counts may be from slightly
+                    different moments while other threads are using the buffer.
+
+    Notification -  Removals are queued in the thread safe "pendingRemovals" while holding the lock, and the
+                    removalListener is only called after the lock has been released, so a slow listener never blocks
+                    other users of the buffer, and a listener may safely call back into the buffer.
+
+    Lock-free reads -   When bufferedReads is true, get does not take the lock. It only reads the thread safe index and
+                        the volatile "value", "expiresAt", "generationTime" and "ttl" fields of a Node, and hands the Node to the thread safe
+                        ReadBuffer. Nodes taken out of the ReadBuffer are only linked in or out of the lists while
+                        holding the lock, and a Node that has already been removed from the buffer (prev == null) is
+                        ignored. A reader that fills the ReadBuffer only drains it if the lock is free (tryLock), so a
+                        reader never waits for a writer.
 
-    Synchronization -   Although the contents of the HashMap buffer are mutated by the various methods within
-                        an FSFTBuffer, each method which may mutate the contents of the FSFTBuffer are synchronized
-                        methods, thus safeguarding against errors arising due to multithreading.
+    Loading -   A load is registered in the thread safe "loading" map with putIfAbsent, so only one thread can start
+                loading an id at a time. The loaded object is put into the buffer before the future is completed and
+                before the load is unregistered, so a caller either sees the object in the buffer or finds the load.
      */
 
     /**
      * checkRep method for an FSFTBuffer. Throws a RuntimeException if the rep has been violated during the call to
      * checkRep.
      */
-    private synchronized void checkRep(){
+    private void checkRep(){
         boolean rep = true;
-        if(buffer.size() > capacity){
+        if(index.size() > capacity || totalWeight > maximumWeight){
             rep = false;
         }
-        long time = System.nanoTime();
 
-        if(buffer.values().stream().filter(x -> x.getExpiry() + timeout < time).count() != this.size()){
+        long weights = 0;
+        for(Node<T> node : index.values()){
+            weights += node.weight;
+        }
+        if(weights != totalWeight){
             rep = false;
         }
 
-        if(buffer.keySet().stream().filter(Objects::nonNull).count() != this.size()){
+        int linked = 0;
+        int windowLinked = 0;
+        for(Node<T> list : List.of(windowHead, head)){
+            long lastAccess = Long.MIN_VALUE;
+            for(Node<T> node = list.next; node != list; node = node.next){
+                if(node.value == null || index.get(node.value.id()) != node){
+                    rep = false;
+                }
+                if(node.inWindow != (list == windowHead)){
+                    rep = false;
+                }
+                if(node.accessTime < lastAccess){
+                    rep = false;
+                }
+                lastAccess = node.accessTime;
+                linked++;
+                windowLinked += node.inWindow ? 1 : 0;
+            }
+        }
+
+        if(linked != index.size() || windowLinked != windowSize || (sketch == null && windowSize != 0)){
             rep = false;
         }
 
-        if(buffer.values().stream().filter(Objects::nonNull).count() != this.size()){
+        linked = 0;
+        long lastExpiry = Long.MIN_VALUE;
+        for(Node<T> node = writeHead.writeNext; node != writeHead; node = node.writeNext){
+            if(node.expiresAt < lastExpiry || node.heapIndex != -1){
+                rep = false;
+            }
+            lastExpiry = node.expiresAt;
+            linked++;
+        }
+
+        for(int i = 0; i < heapSize; i++){
+            if(heap[i].heapIndex != i || heap[i].writePrev != null || heap[(i - 1) / 2].expiresAt > heap[i].expiresAt){
+                rep = false;
+            }
+        }
+
+        if(linked + heapSize != index.size()){
             rep = false;
         }
 
@@ -78,10 +211,55 @@ public class FSFTBuffer<T extends Bufferable> {
     /* the default timeout value is 3600s */
     public static final int DTIMEOUT = 3600;
 
+    /* the longest time to live, about 146 years, so that adding it to a reading of the ticker cannot overflow */
+    private static final long MAXIMUM_TTL = Long.MAX_VALUE / 2;
+
     private final int capacity;
     private final long timeout;
+    private final long maximumWeight;
+    private final Weigher<? super T> weigher;
+    private final RemovalListener<? super T> removalListener;
+    private final boolean bufferedReads;
+    private final double refreshFraction;
+    private final Expiry<? super T> expiry;
+    private final Executor refreshExecutor;
+    private final Ticker ticker;
+    private final int windowCapacity;
+    private final long windowMaximumWeight;
+
+    private final ConcurrentHashMap<String, Node<T>> index = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReadBuffer<Node<T>> readBuffer = new ReadBuffer<>();
+    private final ConcurrentHashMap<String, CompletableFuture<T>> loading = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Removal<T>> pendingRemovals = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder expiredEvictions = new LongAdder();
+    private final LongAdder explicitEvictions = new LongAdder();
+    private final FrequencySketch sketch;
+    private final Consumer<Node<T>> applyRead = this::applyRead;
+    private long totalWeight = 0;
+    private long operationTime;
+    private int windowSize = 0;
+    private long windowWeight = 0;
+
+    /* sentinel of the (main) access order list, head.next is least recently used, head.prev is most recently used */
+    private final Node<T> head = Node.sentinel();
 
-    private final HashMap<T, TimePair> buffer = new HashMap<>();
+    /* sentinel of the window access order list, only used with an admission filter */
+    private final Node<T> windowHead = Node.sentinel();
+
+    /* sentinel of the expiry order list, writeHead.writeNext is the next object with the default timeout to time out */
+    private final Node<T> writeHead = Node.sentinel();
+
+    /* min-heap of the nodes with any other time to live, heap[0] is the next of them to time out */
+    @SuppressWarnings("unchecked")
+    private Node<T>[] heap = (Node<T>[]) new Node<?>[16];
+    private int heapSize = 0;
 
     /**
      * Create a buffer with a fixed capacity and a timeout value.
@@ -93,8 +271,7 @@ public class FSFTBuffer<T extends Bufferable> {
      *                 be in the buffer before it times out
      */
     public FSFTBuffer(int capacity, int timeout) {
-        this.capacity = capacity;
-        this.timeout = TimeUnit.NANOSECONDS.convert(timeout, TimeUnit.SECONDS);
+        this(new Builder<T>().capacity(capacity).timeout(timeout));
     }
 
     /**
@@ -104,40 +281,164 @@ public class FSFTBuffer<T extends Bufferable> {
         this(DSIZE, DTIMEOUT);
     }
 
+    private FSFTBuffer(Builder<T> builder) {
+        this.capacity = builder.capacity;
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = builder.weigher;
+        this.removalListener = builder.removalListener;
+        this.timeout = TimeUnit.NANOSECONDS.convert(builder.timeout, TimeUnit.SECONDS);
+        this.bufferedReads = builder.bufferedReads;
+        this.refreshFraction = builder.refreshFraction;
+        this.expiry = builder.expiry;
+        this.refreshExecutor = builder.refreshExecutor;
+        this.ticker = builder.ticker;
+
+        //the window takes 1% of the buffer
+        this.windowCapacity = Math.max(1, this.capacity / 100);
+        this.windowMaximumWeight = this.maximumWeight == Long.MAX_VALUE ? Long.MAX_VALUE : this.maximumWeight / 100;
+        this.sketch = builder.admissionFilter && this.capacity > 0 ? new FrequencySketch(this.capacity) : null;
+    }
+
     /**
      * Add a value to the buffer.
-     * If the buffer is full then remove the least recently accessed
-     * object to make room for the new object. If the object that is attempting to be added
-     * is already in the buffer, refresh ONLY the TIMEOUT TIME of that object, not the access time.
+     * If the buffer is full, or adding the object would take it over its maximum weight, then remove the least
+     * recently accessed objects until the new object fits. (With an admission filter, an object that is rarely used
+     * may be removed instead of the least recently accessed object.) If an object with the same id
+     * is already in the buffer, it is replaced by {@code t} and treated as newly added.
      *
-     * @return true, if the buffer has valid timeout and timeout times, false if not.
+     * @return true, if the buffer has valid timeout and timeout times and {@code t} is not heavier than the maximum
+     * weight of the buffer, false if not.
      */
-    public synchronized boolean put(T t) {
+    public boolean put(T t) {
 
         //checks if the buffer has valid values
         if(this.timeout <= 0 || this.capacity <= 0){
             return false;
         }
+        return this.put(t, -1);
+    }
 
-        if(this.buffer.containsKey(t)){
-            this.update(t);
+    /**
+     * Add a value to the buffer that times out after {@code ttl} instead of after the timeout of the buffer. Touching
+     * or updating the object later gives it {@code ttl} again. Otherwise this behaves like put(T).
+     *
+     * @param t     the object to add
+     * @param ttl   how long the object may stay in the buffer, > 0
+     * @return true, if the buffer has a valid capacity, {@code ttl} is positive and {@code t} is not heavier than the
+     * maximum weight of the buffer, false if not.
+     */
+    public boolean put(T t, Duration ttl) {
+        if(this.capacity <= 0 || ttl.isNegative() || ttl.isZero()){
+            return false;
         }
+        long nanos = ttl.compareTo(Duration.ofNanos(MAXIMUM_TTL)) > 0 ? MAXIMUM_TTL : ttl.toNanos();
+        return this.put(t, nanos);
+    }
 
-        this.clean();
+    /**
+     * Helper method for both puts.
+     * @param ttl   the time to live of {@code t} in nanoseconds, or -1 to use the timeout of the buffer (or the expiry)
+     */
+    private boolean put(T t, long ttl) {
+        int weight = this.weigher.weigh(t);
+        if(weight > this.maximumWeight){
+            return false;
+        }
 
-        //Bumps out least recently accessed objects
-        while(this.buffer.size() >= capacity){
-            this.buffer.remove(this.buffer.entrySet()
-                .stream()
-                .min((a, b) -> a
-                    .getValue()
-                    .getAccess() > b.getValue().getAccess()
-                    ? 1 : -1).get().getKey());
+        this.lock.lock();
+        try {
+            //Timed out objects are removed before any live object is bumped out
+            this.clean();
+            this.evict(this.insert(t, weight, ttl));
+            return true;
+        } finally {
+            this.unlock();
         }
+    }
 
-        this.buffer.put(t, new TimePair());
+    /**
+     * Add every value of {@code objects} to the buffer, in order, as if by put(T), but taking the lock and removing
+     * timed out objects only once, and bumping out objects only once all of them have been added. Objects heavier
+     * than the maximum weight are skipped. If {@code objects} holds more objects than fit, the ones added first are
+     * bumped out, as they would be by a sequence of puts.
+     *
+     * @param objects   the objects to add
+     * @return the number of objects that were added
+     */
+    public int putAll(Collection<? extends T> objects) {
+        if(this.timeout <= 0 || this.capacity <= 0){
+            return 0;
+        }
 
-        return true;
+        int[] weights = new int[objects.size()];
+        int i = 0;
+        for(T t : objects){
+            weights[i++] = this.weigher.weigh(t);
+        }
+
+        this.lock.lock();
+        try {
+            this.clean();
+            int added = 0;
+            i = 0;
+            for(T t : objects){
+                int weight = weights[i++];
+                if(weight <= this.maximumWeight){
+                    this.insert(t, weight, -1);
+                    added++;
+                }
+            }
+            this.evict(null);
+            return added;
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Helper method for put and putAll which adds an object to the index, the access order and the expiry order, or
+     * replaces the object with the same id, without bumping anything out. Requires that the lock is held and that
+     * the buffer was just cleaned.
+     * @param ttl   the time to live of {@code t} in nanoseconds, or -1 to use the timeout of the buffer (or the expiry)
+     * @return      the node that now holds {@code t}
+     */
+    private Node<T> insert(T t, int weight, long ttl) {
+        long now = this.operationTime;
+
+        Node<T> node = this.index.get(t.id());
+        this.recordAccess(t.id());
+
+        if(node != null){
+            long duration = ttl >= 0 ? ttl
+                : this.expiry != null ? this.expiry.expireAfterUpdate(t, now, node.expiresAt - now)
+                : this.timeout;
+            this.notifyReplaced(node, t);
+            node.value = t;
+            node.accessTime = now;
+            node.ttl = ttl >= 0 ? ttl : this.timeout;
+            node.generationTime = now;
+            this.setWeight(node, weight);
+            this.moveToBack(node);
+            this.schedule(node, now, duration);
+            return node;
+        }
+
+        long duration = ttl >= 0 ? ttl
+            : this.expiry != null ? this.expiry.expireAfterCreate(t, now)
+            : this.timeout;
+        node = new Node<>(t);
+        node.accessTime = now;
+        node.ttl = ttl >= 0 ? ttl : this.timeout;
+        node.generationTime = now;
+        node.inWindow = this.sketch != null;
+        if(node.inWindow){
+            this.windowSize++;
+        }
+        this.index.put(t.id(), node);
+        this.setWeight(node, weight);
+        this.linkLast(node);
+        this.schedule(node, now, duration);
+        return node;
     }
 
     /**
@@ -147,19 +448,408 @@ public class FSFTBuffer<T extends Bufferable> {
      * @throws NoSuchElementException   if no Bufferable inside the buffer has the id passed as the parameter in the
      *                                  method.
      */
-    public synchronized T get(String id) throws NoSuchElementException {
-        this.clean();
-
-        List<T> matchSet = this.buffer.keySet().stream().filter(x -> x.id().equals(id)).collect(Collectors.toList());
+    public T get(String id) throws NoSuchElementException {
+        T value = this.getIfPresent(id);
 
-        if(matchSet.size() > 0){
-            this.buffer.replace(matchSet.get(0), this.buffer.get(matchSet.get(0)).updateAccessTime());
-            return matchSet.get(0);
+        if(value != null){
+            return value;
         } else {
             throw new NoSuchElementException();
         }
     }
 
+    /**
+     * Retrieves an object from the buffer based on its id, like get, but reports a missing object by returning null
+     * instead of throwing an exception.
+     * @param id    The id of the desired object from the buffer
+     * @return      The desired object inside the buffer, or null if no Bufferable inside the buffer has the id.
+     */
+    public T getIfPresent(String id) {
+        Node<T> node = this.hit(id);
+        this.recordLookup(node);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Retrieves every object of {@code ids} that is in the buffer, taking the lock and removing timed out objects
+     * only once. Each object found counts as a get of it.
+     * @param ids   the ids of the desired objects
+     * @return      the objects that are in the buffer, by id, in the order of {@code ids}. Ids that are not in the
+     *              buffer are left out.
+     */
+    public Map<String, T> getAll(Collection<String> ids) {
+        Map<String, T> found = new LinkedHashMap<>();
+        this.hitAll(ids, found, true);
+        return found;
+    }
+
+    /**
+     * Retrieves every object of {@code ids}, loading the ones that are not in the buffer with a single call to
+     * {@code batchLoader}, and adding them to the buffer with putAll. Ids that another thread is already loading are
+     * not passed to the batch loader, their loads are waited for instead. Objects are not refreshed by this method.
+     * @param ids           the ids of the desired objects
+     * @param batchLoader   Computes the objects for a set of ids that are not in the buffer, as a map from id to
+     *                      object. Ids with no object may be left out of the map. It is not called if every object
+     *                      is in the buffer.
+     * @return              the objects, by id, in the order of {@code ids}. Ids that were not in the buffer and were
+     *                      not loaded are left out.
+     * @throws RuntimeException     any exception thrown by the batch loader, in which case nothing is added to the
+     *                              buffer.
+     */
+    public Map<String, T> getAllOrLoad(Collection<String> ids,
+                                       Function<? super Set<String>, ? extends Map<String, ? extends T>> batchLoader) {
+        Map<String, T> found = new HashMap<>();
+        this.hitAll(ids, found, true);
+
+        Map<String, CompletableFuture<T>> mine = new LinkedHashMap<>();
+        Map<String, CompletableFuture<T>> others = new HashMap<>();
+        for(String id : ids){
+            if(found.containsKey(id) || mine.containsKey(id) || others.containsKey(id)){
+                continue;
+            }
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<T> running = this.loading.putIfAbsent(id, future);
+            if(running != null){
+                others.put(id, running);
+            } else {
+                mine.put(id, future);
+            }
+        }
+
+        //another thread may have finished loading some of them between our misses and our registration
+        if(!mine.isEmpty()){
+            this.hitAll(mine.keySet(), found, false);
+            mine.keySet().removeIf(id -> {
+                if(found.containsKey(id)){
+                    CompletableFuture<T> future = mine.get(id);
+                    this.loading.remove(id, future);
+                    future.complete(found.get(id));
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        if(!mine.isEmpty()){
+            this.runBatchLoad(mine, batchLoader, found);
+        }
+
+        for(Map.Entry<String, CompletableFuture<T>> entry : others.entrySet()){
+            T value = this.join(entry.getValue());
+            if(value != null){
+                found.put(entry.getKey(), value);
+            }
+        }
+
+        Map<String, T> result = new LinkedHashMap<>();
+        for(String id : ids){
+            T value = found.get(id);
+            if(value != null){
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Helper method for getAllOrLoad which runs the batch loader for the ids that this thread registered loads for,
+     * adds what it loaded to the buffer and to {@code found}, completes the futures of the loads and unregisters them.
+     */
+    private void runBatchLoad(Map<String, CompletableFuture<T>> mine,
+                              Function<? super Set<String>, ? extends Map<String, ? extends T>> batchLoader,
+                              Map<String, T> found) {
+        long start = this.ticker.read();
+        try {
+            Map<String, ? extends T> loaded = batchLoader.apply(Collections.unmodifiableSet(mine.keySet()));
+            this.loadTime.add(this.ticker.read() - start);
+
+            List<T> objects = new ArrayList<>(mine.size());
+            for(String id : mine.keySet()){
+                T value = loaded == null ? null : loaded.get(id);
+                (value != null ? this.loadSuccesses : this.loadFailures).increment();
+                if(value != null){
+                    objects.add(value);
+                    found.put(id, value);
+                }
+            }
+            this.putAll(objects);
+
+            for(Map.Entry<String, CompletableFuture<T>> entry : mine.entrySet()){
+                entry.getValue().complete(found.get(entry.getKey()));
+            }
+        } catch (Throwable e) {
+            this.loadFailures.add(mine.size());
+            this.loadTime.add(this.ticker.read() - start);
+            for(CompletableFuture<T> future : mine.values()){
+                future.completeExceptionally(e);
+            }
+            this.rethrow(e);
+            throw new CompletionException(e);
+        } finally {
+            for(Map.Entry<String, CompletableFuture<T>> entry : mine.entrySet()){
+                this.loading.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Helper method for getAll and getAllOrLoad, which finds the live objects of several ids under one lock and
+     * records the accesses to them like hit.
+     * @param found     receives the objects that are found, by id
+     * @param record    if true, every id counts as a hit or a miss in the statistics
+     */
+    private void hitAll(Collection<String> ids, Map<String, T> found, boolean record) {
+        this.lock.lock();
+        try {
+            this.clean();
+            for(String id : ids){
+                Node<T> node = this.index.get(id);
+                if(node != null){
+                    node.accessTime = this.operationTime;
+                    this.moveToBack(node);
+                    this.recordAccess(id);
+                    this.expireAfterRead(node);
+                    found.put(id, node.value);
+                }
+                if(record){
+                    this.recordLookup(node);
+                }
+            }
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Helper method for getIfPresent and the loading methods, which finds the live node of an id and records the
+     * access to it.
+     * @return  the node holding the object with {@code id}, or null if there is none
+     */
+    private Node<T> hit(String id) {
+        if(this.bufferedReads){
+            return this.getBuffered(id);
+        }
+
+        this.lock.lock();
+        try {
+            Node<T> node = this.findLive(id);
+
+            if(node != null){
+                node.accessTime = this.operationTime;
+                this.moveToBack(node);
+                this.recordAccess(id);
+                this.expireAfterRead(node);
+            }
+            return node;
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Retrieves an object from the buffer based on its id, loading it and adding it to the buffer if it is not there.
+     * If other threads ask for the same missing id while it is being loaded, the loader is only called once and
+     * every caller receives the same object. If the buffer refreshes objects (see Builder.refreshAfter), an object
+     * that is due to be refreshed is returned, and reloaded in the background with {@code loader}.
+     * @param id        The id of the desired object
+     * @param loader    Computes the object for an id that is not in the buffer. It may return null if there is no
+     *                  such object, in which case nothing is added to the buffer.
+     * @return          The desired object, or null if it was not in the buffer and the loader returned null.
+     * @throws RuntimeException     any exception thrown by the loader, in which case nothing is added to the buffer.
+     */
+    public T getOrLoad(String id, Function<String, ? extends T> loader) {
+        return this.getOrLoad(id, loader, loader);
+    }
+
+    /**
+     * Retrieves an object from the buffer like getOrLoad(String, Function), but refreshes it with {@code reloader}
+     * instead of {@code loader}, for objects whose loader may give back the same copy that is being refreshed.
+     * @param id        The id of the desired object
+     * @param loader    Computes the object for an id that is not in the buffer, may return null.
+     * @param reloader  Computes a fresh object to put in place of one that is due to be refreshed, may return null.
+     * @return          The desired object, or null if it was not in the buffer and the loader returned null.
+     * @throws RuntimeException     any exception thrown by the loader, in which case nothing is added to the buffer.
+     */
+    public T getOrLoad(String id, Function<String, ? extends T> loader, Function<String, ? extends T> reloader) {
+        T value = this.getAndRefresh(id, reloader);
+        if(value != null){
+            return value;
+        }
+
+        return this.join(this.load(id, loader, null));
+    }
+
+    /**
+     * Helper method which waits for a load, and rethrows what the loader threw if it failed.
+     */
+    private T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            this.rethrow(ce.getCause());
+            throw ce;
+        }
+    }
+
+    private void rethrow(Throwable e) {
+        if(e instanceof RuntimeException){
+            throw (RuntimeException) e;
+        }
+        if(e instanceof Error){
+            throw (Error) e;
+        }
+    }
+
+    /**
+     * Asynchronous version of getOrLoad. If the object is in the buffer the returned future is already complete,
+     * otherwise the loader runs on {@code executor}, unless another load of the same id is already running, in
+     * which case the future of that load is returned.
+     * @param id        The id of the desired object
+     * @param loader    Computes the object for an id that is not in the buffer, may return null.
+     * @param executor  Runs the loader.
+     * @return          A future of the desired object, which completes exceptionally if the loader throws.
+     */
+    public CompletableFuture<T> getOrLoadAsync(String id, Function<String, ? extends T> loader, Executor executor) {
+        T value = this.getAndRefresh(id, loader);
+        if(value != null){
+            return CompletableFuture.completedFuture(value);
+        }
+        return this.load(id, loader, executor);
+    }
+
+    /**
+     * Asynchronous version of getOrLoad that runs the loader on the common ForkJoinPool.
+     */
+    public CompletableFuture<T> getOrLoadAsync(String id, Function<String, ? extends T> loader) {
+        return this.getOrLoadAsync(id, loader, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Helper method for the loading methods, which gets an object like getIfPresent, and starts refreshing it if it
+     * is due to be refreshed.
+     */
+    private T getAndRefresh(String id, Function<String, ? extends T> loader) {
+        Node<T> node = this.hit(id);
+        this.recordLookup(node);
+        if(node == null){
+            return null;
+        }
+
+        T value = node.value;
+        if(this.refreshFraction > 0
+            && this.ticker.read() - node.generationTime > this.refreshFraction * node.ttl){
+            this.refresh(id, loader);
+        }
+        return value;
+    }
+
+    /**
+     * Helper method which reloads an object that is still in the buffer on the refresh executor, unless {@code id} is
+     * already being loaded. The old object stays in the buffer until the new one is put in its place. If the loader
+     * returns null or throws, the old object is kept until it times out.
+     */
+    private void refresh(String id, Function<String, ? extends T> loader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if(this.loading.putIfAbsent(id, future) != null){
+            return;
+        }
+
+        Runnable task = () -> this.runLoad(id, loader, future);
+
+        try {
+            this.refreshExecutor.execute(task);
+        } catch (RuntimeException e) {
+            this.loading.remove(id, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Helper method which starts loading {@code id}, or joins the load of {@code id} that is already running.
+     * @param executor  runs the loader, or null to run it on the calling thread before returning.
+     */
+    private CompletableFuture<T> load(String id, Function<String, ? extends T> loader, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> running = this.loading.putIfAbsent(id, future);
+        if(running != null){
+            return running;
+        }
+
+        //another thread may have finished loading id between our miss and our registration
+        Node<T> node = this.hit(id);
+        if(node != null){
+            this.loading.remove(id, future);
+            future.complete(node.value);
+            return future;
+        }
+
+        Runnable task = () -> this.runLoad(id, loader, future);
+
+        if(executor == null){
+            task.run();
+        } else {
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                this.loading.remove(id, future);
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Helper method for the loading methods which runs a registered load: it calls the loader, puts the loaded object
+     * into the buffer, completes the future of the load, and then unregisters the load.
+     */
+    private void runLoad(String id, Function<String, ? extends T> loader, CompletableFuture<T> future) {
+        long start = this.ticker.read();
+        try {
+            T loaded = loader.apply(id);
+            (loaded != null ? this.loadSuccesses : this.loadFailures).increment();
+            this.loadTime.add(this.ticker.read() - start);
+            if(loaded != null){
+                this.put(loaded);
+            }
+            future.complete(loaded);
+        } catch (Throwable e) {
+            this.loadFailures.increment();
+            this.loadTime.add(this.ticker.read() - start);
+            future.completeExceptionally(e);
+        } finally {
+            this.loading.remove(id, future);
+        }
+    }
+
+    private void recordLookup(Node<T> node) {
+        (node != null ? this.hits : this.misses).increment();
+    }
+
+    /**
+     * Helper method for hit when bufferedReads is true. Looks the object up without taking the lock and
+     * records the read in the read buffer. If the read buffer is filling up and no other thread holds the lock, the
+     * recorded reads are applied to the access order list right away.
+     */
+    private Node<T> getBuffered(String id) {
+        Node<T> node = this.index.get(id);
+        long now = this.ticker.read();
+
+        //a timed out object is left for the next writer to remove
+        if(node == null || this.isExpired(node, now)){
+            return null;
+        }
+
+        if(this.readBuffer.offer(node) && this.lock.tryLock()){
+            try {
+                this.operationTime = now;
+                this.drainReads();
+            } finally {
+                this.unlock();
+            }
+        }
+        return node;
+    }
+
     /**
      * Update the last refresh time for the object with the provided id.
      * This method is used to mark an object as "not stale" so that its
@@ -170,60 +860,559 @@ public class FSFTBuffer<T extends Bufferable> {
      * would result from the object not being
      * currently stored in the buffer.
      */
-    public synchronized boolean touch(String id) {
-
-        this.clean();
-
-        //Identifies keys matching the id in the buffer.
-        List<T> matchSet = this.buffer.keySet().stream().filter(x -> x.id().equals(id)).collect(Collectors.toList());
+    public boolean touch(String id) {
+        this.lock.lock();
+        try {
+            Node<T> node = this.findLive(id);
 
-        if(matchSet.size() > 0){
-            this.buffer.replace(matchSet.get(0), this.buffer.get(matchSet.get(0)).updateGenerationTime());
-            return true;
-        } else {
-            return false;
+            if(node != null){
+                this.renew(node, node.value);
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            this.unlock();
         }
 
     }
 
     /**
      * Update an object in the buffer.
-     * This method updates an object and acts like a "touch" to
-     * renew the object in the cache.
+     * This method replaces the stored object that has the same id as {@code t}
+     * and acts like a "touch" to renew the object in the cache. If {@code t} is heavier
+     * than the object it replaces, other objects may be removed to stay within the maximum weight.
      *
      * @param t the object to update
-     * @return true if the object is within the buffer and false otherwise
+     * @return true if the object is within the buffer and false otherwise, or if {@code t} is heavier than the
+     * maximum weight of the buffer
      */
-    public synchronized boolean update(T t) {
+    public boolean update(T t) {
+        int weight = this.weigher.weigh(t);
+        if(weight > this.maximumWeight){
+            return false;
+        }
 
-        this.clean();
+        this.lock.lock();
+        try {
+            Node<T> node = this.findLive(t.id());
+
+            if(node != null){
+                this.notifyReplaced(node, t);
+                this.renew(node, t);
+                node.value = t;
+                this.setWeight(node, weight);
+                this.evict(node);
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            this.unlock();
+        }
+
+    }
+
+    /**
+     * Helper method for touch and update which restarts the time to live of a node, or asks the expiry for a new one.
+     * @param t the object that the node holds from now on
+     */
+    private void renew(Node<T> node, T t) {
+        long now = this.operationTime;
+        long duration = this.expiry != null ? this.expiry.expireAfterUpdate(t, now, node.expiresAt - now) : node.ttl;
+        node.generationTime = now;
+        this.schedule(node, now, duration);
+    }
 
-        if(this.buffer.containsKey(t)){
-            this.buffer.replace(t, this.buffer.get(t).updateGenerationTime());
+    /**
+     * Helper method which asks the expiry, if there is one, how long a node that was just read may stay.
+     */
+    private void expireAfterRead(Node<T> node) {
+        if(this.expiry == null){
+            return;
+        }
+        long now = this.operationTime;
+        long remaining = node.expiresAt - now;
+        long duration = this.expiry.expireAfterRead(node.value, now, remaining);
+        if(duration != remaining){
+            this.schedule(node, now, duration);
+        }
+    }
+
+    /**
+     * Removes the object with the provided id from the buffer, if it is there.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if the object was in the buffer, false otherwise
+     */
+    public boolean invalidate(String id) {
+        this.lock.lock();
+        try {
+            Node<T> node = this.findLive(id);
+            if(node == null){
+                return false;
+            }
+            this.remove(node, RemovalCause.EXPLICIT);
             return true;
-        } else {
-            return false;
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Reads the statistics of the buffer. The counts start at 0 when the buffer is created and are never reset.
+     * Lookups are counted by get, getIfPresent, getOrLoad and getOrLoadAsync.
+     *
+     * @return a snapshot of the statistics of the buffer
+     */
+    public CacheStats stats() {
+        return new CacheStats(this.hits.sum(), this.misses.sum(), this.loadSuccesses.sum(), this.loadFailures.sum(),
+            this.loadTime.sum(), this.sizeEvictions.sum(), this.expiredEvictions.sum(),
+            this.explicitEvictions.sum());
+    }
+
+    /**
+     * Copies the live objects of the buffer, together with how long each of them has left before it times out, so
+     * that they can be saved and restored into another buffer later.
+     * @return  every object in the buffer, in access order, least recently accessed first. (With an admission filter,
+     *          the recently added objects of the window come last.)
+     */
+    public List<SnapshotEntry<T>> snapshot(){
+        this.lock.lock();
+        try {
+            this.clean();
+            long now = this.operationTime;
+            List<SnapshotEntry<T>> entries = new ArrayList<>(this.index.size());
+            for(Node<T> list : List.of(this.head, this.windowHead)){
+                for(Node<T> node = list.next; node != list; node = node.next){
+                    long remaining = node.expiresAt - now;
+                    entries.add(new SnapshotEntry<>(node.value, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                }
+            }
+            return entries;
+        } finally {
+            this.unlock();
         }
+    }
+
+    /**
+     * Adds the objects of a snapshot to the buffer, as if they had been put in the order given, except that each
+     * object times out once its remaining time has passed (or after the timeout of this buffer, if that is sooner).
+     * Objects whose remaining time is not positive, and objects heavier than the maximum weight, are skipped. An
+     * object with the same id as one already in the buffer replaces it. Only the last {@code capacity} entries are
+     * considered, and if the buffer is then too full, objects are removed as they would be by put.
+     *
+     * @param entries   the objects to add, least recently accessed first, as returned by snapshot
+     * @return          the number of entries that were added
+     */
+    public int restore(List<SnapshotEntry<T>> entries){
+        if(this.timeout <= 0 || this.capacity <= 0){
+            return 0;
+        }
+
+        this.lock.lock();
+        try {
+            this.clean();
+            long now = this.operationTime;
+            int restored = 0;
+
+            for(SnapshotEntry<T> entry : entries.subList(Math.max(0, entries.size() - this.capacity), entries.size())){
+                T t = entry.value();
+                int weight = this.weigher.weigh(t);
+                if(entry.remainingMillis() <= 0 || weight > this.maximumWeight){
+                    continue;
+                }
+
+                long remaining = Math.min(TimeUnit.MILLISECONDS.toNanos(entry.remainingMillis()), this.timeout);
+
+                Node<T> node = this.index.get(t.id());
+                if(node != null){
+                    this.notifyReplaced(node, t);
+                    node.value = t;
+                    this.moveToBack(node);
+                } else {
+                    node = new Node<>(t);
+                    node.inWindow = this.sketch != null;
+                    if(node.inWindow){
+                        this.windowSize++;
+                    }
+                    this.index.put(t.id(), node);
+                    this.linkLast(node);
+                }
+                node.accessTime = now;
+                node.ttl = this.timeout;
+                node.generationTime = now - this.timeout + remaining;
+                this.setWeight(node, weight);
+                this.recordAccess(t.id());
+                this.schedule(node, now, remaining);
+                restored++;
+            }
+
+            this.evict(null);
+            return restored;
+        } finally {
+            this.unlock();
+        }
+    }
 
+    /**
+     * Removes every object that has timed out from the buffer. This is done by every other method anyway, so it only
+     * needs to be called to release timed out objects from a buffer that is otherwise idle (see ExpirationSweeper).
+     */
+    public void cleanUp(){
+        this.lock.lock();
+        try {
+            this.clean();
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * Helper method which looks up the node for an id in constant time, after removing the objects that have timed
+     * out.
+     * @param id    the id of the desired object
+     * @return      the live node holding the object with {@code id}, or null if there is none
+     */
+    private Node<T> findLive(String id){
+        this.clean();
+        return this.index.get(id);
     }
 
     /**
      * Helper method for all other methods within the class. clean is called before every method executes in the
-     * FSFTBuffer. It removes all objects within the buffer which have expired, where "expiry" is defined as if
-     * the object's TimePair expiry time is lesser than the current System.nanoTime().
+     * FSFTBuffer, while holding the lock. It first applies the reads recorded in the read buffer, and then it
+     * removes all objects within the buffer which have expired, where "expiry" is defined as if
+     * the object's expiresAt is lesser than the current reading of the ticker. Because the expiry order list and the
+     * heap are both ordered by expiry, only the objects that are actually removed, plus two, are looked at.
      */
-    private synchronized void clean(){
-        long cleanTime = System.nanoTime();
+    private void clean(){
+        this.operationTime = this.ticker.read();
+        this.drainReads();
 
-        if(this.buffer.size() > 0){
-            List<T> expiredKeys = this.buffer.keySet().stream()
-                    .filter(x -> this.buffer.get(x).getExpiry() + timeout < cleanTime).collect(Collectors.toList());
+        while(this.writeHead.writeNext != this.writeHead
+            && this.isExpired(this.writeHead.writeNext, this.operationTime)){
+            this.remove(this.writeHead.writeNext, RemovalCause.EXPIRED);
+        }
+        while(this.heapSize > 0 && this.isExpired(this.heap[0], this.operationTime)){
+            this.remove(this.heap[0], RemovalCause.EXPIRED);
+        }
 
-            for(T object : expiredKeys){
-                this.buffer.remove(object);
+    }
+
+    /**
+     * Helper method which moves every node recorded by a buffered get to the most recently used end of the access
+     * order list. Requires that the lock is held.
+     */
+    private void drainReads(){
+        if(!this.bufferedReads){
+            return;
+        }
+        this.readBuffer.drain(this.applyRead);
+    }
+
+    /**
+     * Helper method for drainReads which applies one buffered read. It is kept in a field so that draining does not
+     * allocate.
+     */
+    private void applyRead(Node<T> node){
+        //the node may have been removed since it was read
+        if(node.prev != null){
+            node.accessTime = this.operationTime;
+            this.moveToBack(node);
+            this.recordAccess(node.value.id());
+            this.expireAfterRead(node);
+        }
+    }
+
+    private boolean isExpired(Node<T> node, long time){
+        return node.expiresAt < time;
+    }
+
+    /**
+     * Helper method which bumps out the least recently accessed objects until the buffer is within both its capacity
+     * and its maximum weight.
+     * @param keep  the node that was just added or changed, which is never bumped out. This is safe since no single
+     *              object is heavier than the maximum weight.
+     */
+    private void evict(Node<T> keep){
+        if(this.sketch != null){
+            this.evictWithAdmission(keep);
+            return;
+        }
+
+        Node<T> victim = this.head.next;
+        while(this.isOverfull() && victim != this.head){
+            Node<T> next = victim.next;
+            if(victim != keep){
+                this.remove(victim, RemovalCause.SIZE);
             }
+            victim = next;
         }
+    }
 
+    /**
+     * Helper method for evict when there is an admission filter. The objects that overflow the window are moved to
+     * the most recently used end of the main list, and while the buffer is too full, the oldest of those candidates
+     * is compared with the least recently used object of the main list (the victim). The one that the sketch
+     * estimates has been used less often is removed, and the victim loses ties.
+     * @param keep  the node that was just added or changed, which is never bumped out.
+     */
+    private void evictWithAdmission(Node<T> keep){
+        Node<T> candidate = null;
+        while((this.windowSize > this.windowCapacity || this.windowWeight > this.windowMaximumWeight)
+            && this.windowHead.next != this.windowHead){
+            Node<T> node = this.windowHead.next;
+            this.unlink(node);
+            this.windowSize--;
+            this.windowWeight -= node.weight;
+            node.inWindow = false;
+            this.linkLast(node);
+            if(candidate == null){
+                candidate = node;
+            }
+        }
+
+        while(this.isOverfull()){
+            Node<T> victim = this.head.next == keep ? keep.next : this.head.next;
+
+            if(victim == this.head){
+                //nothing in the main list can be removed, so the window has to give up its oldest object
+                victim = this.windowHead.next == keep ? keep.next : this.windowHead.next;
+                if(victim == this.windowHead){
+                    return;
+                }
+                this.remove(victim, RemovalCause.SIZE);
+            } else if(candidate == null){
+                this.remove(victim, RemovalCause.SIZE);
+            } else if(candidate == victim){
+                //only candidates are left in the main list
+                candidate = this.nextCandidate(candidate);
+                this.remove(victim, RemovalCause.SIZE);
+            } else if(candidate == keep
+                || this.sketch.frequency(candidate.value.id()) > this.sketch.frequency(victim.value.id())){
+                candidate = this.nextCandidate(candidate);
+                this.remove(victim, RemovalCause.SIZE);
+            } else {
+                Node<T> rejected = candidate;
+                candidate = this.nextCandidate(candidate);
+                this.remove(rejected, RemovalCause.SIZE);
+            }
+        }
+    }
+
+    private Node<T> nextCandidate(Node<T> candidate){
+        return candidate.next == this.head ? null : candidate.next;
+    }
+
+    private boolean isOverfull(){
+        return this.index.size() > this.capacity || this.totalWeight > this.maximumWeight;
+    }
+
+    /**
+     * Records one use of an id in the sketch, if there is an admission filter. Requires that the lock is held.
+     */
+    private void recordAccess(String id){
+        if(this.sketch != null){
+            this.sketch.increment(id);
+        }
+    }
+
+    private void setWeight(Node<T> node, int weight){
+        this.totalWeight += weight - node.weight;
+        if(node.inWindow){
+            this.windowWeight += weight - node.weight;
+        }
+        node.weight = weight;
+    }
+
+    /**
+     * Removes a node from the index, its access order list and its expiry order structure, and queues the removal
+     * for the removal listener.
+     */
+    private void remove(Node<T> node, RemovalCause cause){
+        this.totalWeight -= node.weight;
+        if(node.inWindow){
+            this.windowSize--;
+            this.windowWeight -= node.weight;
+        }
+        this.index.remove(node.value.id());
+        this.unlink(node);
+        this.unschedule(node);
+        this.evictionCounter(cause).increment();
+        if(this.removalListener != null){
+            this.pendingRemovals.add(new Removal<>(node.value, cause));
+        }
+    }
+
+    private LongAdder evictionCounter(RemovalCause cause){
+        switch(cause){
+            case SIZE:
+                return this.sizeEvictions;
+            case EXPIRED:
+                return this.expiredEvictions;
+            default:
+                return this.explicitEvictions;
+        }
+    }
+
+    /**
+     * Queues the object of a node for the removal listener when it is about to be replaced by a different object.
+     */
+    private void notifyReplaced(Node<T> node, T replacement){
+        if(this.removalListener != null && node.value != replacement){
+            this.pendingRemovals.add(new Removal<>(node.value, RemovalCause.REPLACED));
+        }
+    }
+
+    /**
+     * Releases the lock, and then hands every queued removal to the removal listener.
+     */
+    private void unlock(){
+        this.lock.unlock();
+        if(this.removalListener == null){
+            return;
+        }
+        Removal<T> removal;
+        while((removal = this.pendingRemovals.poll()) != null){
+            this.removalListener.onRemoval(removal.value, removal.cause);
+        }
+    }
+
+    /**
+     * Links a node in at the most recently used end of the window list if it is in the window, or else of the main
+     * list.
+     */
+    private void linkLast(Node<T> node){
+        Node<T> list = node.inWindow ? this.windowHead : this.head;
+        node.prev = list.prev;
+        node.next = list;
+        list.prev.next = node;
+        list.prev = node;
+    }
+
+    private void unlink(Node<T> node){
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private void moveToBack(Node<T> node){
+        if(node.next != this.head && node.next != this.windowHead){
+            this.unlink(node);
+            this.linkLast(node);
+        }
+    }
+
+    private void linkLastWrite(Node<T> node){
+        node.writePrev = this.writeHead.writePrev;
+        node.writeNext = this.writeHead;
+        this.writeHead.writePrev.writeNext = node;
+        this.writeHead.writePrev = node;
+    }
+
+    private void unlinkWrite(Node<T> node){
+        node.writePrev.writeNext = node.writeNext;
+        node.writeNext.writePrev = node.writePrev;
+        node.writePrev = null;
+        node.writeNext = null;
+    }
+
+    /**
+     * Helper method which sets when a node times out, and moves it to the right place in the expiry order list or the
+     * heap. Nodes that get the timeout of the buffer go to the back of the list, all others go into the heap.
+     * @param duration  the time, in nanoseconds, until the node times out. It is capped at MAXIMUM_TTL.
+     */
+    private void schedule(Node<T> node, long now, long duration){
+        duration = Math.min(duration, MAXIMUM_TTL);
+        node.expiresAt = now + duration;
+        if(duration == this.timeout){
+            if(node.heapIndex >= 0){
+                this.heapRemove(node);
+            }
+            if(node.writePrev == null){
+                this.linkLastWrite(node);
+            } else if(this.writeHead.writePrev != node){
+                this.unlinkWrite(node);
+                this.linkLastWrite(node);
+            }
+        } else {
+            if(node.writePrev != null){
+                this.unlinkWrite(node);
+            }
+            if(node.heapIndex >= 0){
+                this.siftUp(node.heapIndex);
+                this.siftDown(node.heapIndex);
+            } else {
+                this.heapAdd(node);
+            }
+        }
+    }
+
+    private void unschedule(Node<T> node){
+        if(node.heapIndex >= 0){
+            this.heapRemove(node);
+        } else if(node.writePrev != null){
+            this.unlinkWrite(node);
+        }
+    }
+
+    private void heapAdd(Node<T> node){
+        if(this.heapSize == this.heap.length){
+            this.heap = Arrays.copyOf(this.heap, this.heap.length * 2);
+        }
+        this.heap[this.heapSize] = node;
+        node.heapIndex = this.heapSize;
+        this.heapSize++;
+        this.siftUp(node.heapIndex);
+    }
+
+    private void heapRemove(Node<T> node){
+        int i = node.heapIndex;
+        this.heapSize--;
+        Node<T> last = this.heap[this.heapSize];
+        this.heap[this.heapSize] = null;
+        node.heapIndex = -1;
+        if(last != node){
+            this.heap[i] = last;
+            last.heapIndex = i;
+            this.siftUp(i);
+            this.siftDown(last.heapIndex);
+        }
+    }
+
+    private void siftUp(int i){
+        Node<T> node = this.heap[i];
+        while(i > 0){
+            int parent = (i - 1) / 2;
+            if(this.heap[parent].expiresAt <= node.expiresAt){
+                break;
+            }
+            this.heap[i] = this.heap[parent];
+            this.heap[i].heapIndex = i;
+            i = parent;
+        }
+        this.heap[i] = node;
+        node.heapIndex = i;
+    }
+
+    private void siftDown(int i){
+        Node<T> node = this.heap[i];
+        while(2 * i + 1 < this.heapSize){
+            int child = 2 * i + 1;
+            if(child + 1 < this.heapSize && this.heap[child + 1].expiresAt < this.heap[child].expiresAt){
+                child++;
+            }
+            if(node.expiresAt <= this.heap[child].expiresAt){
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            this.heap[i].heapIndex = i;
+            i = child;
+        }
+        this.heap[i] = node;
+        node.heapIndex = i;
     }
 
     /**
@@ -231,19 +1420,250 @@ public class FSFTBuffer<T extends Bufferable> {
      * Requires that the buffer has at least one object within it.
      * @return  The set of all of the current objects currently stored inside of the buffer.
      */
-    public synchronized Set<T> getCurrentObjects() {
-        this.clean();
-        return new HashSet<>(this.buffer.keySet());
+    public Set<T> getCurrentObjects() {
+        this.lock.lock();
+        try {
+            this.clean();
+            Set<T> objects = new HashSet<>();
+            for(Node<T> node : this.index.values()){
+                objects.add(node.value);
+            }
+            return objects;
+        } finally {
+            this.unlock();
+        }
     }
 
     /**
      * Retrieves the current size of the FSFTBuffer.
      * @return  The current size of the current instance of FSFTBuffer.
      */
-    public synchronized int size(){
-        this.clean();
-        return this.buffer.size();
+    public int size(){
+        this.lock.lock();
+        try {
+            this.clean();
+            return this.index.size();
+        } finally {
+            this.unlock();
+        }
+    }
+
+    /**
+     * An entry of the buffer. Each node is the value of the index, an element of an access order list (window or
+     * main), and either an element of the expiry order list or in the heap.
+     */
+    private static final class Node<T> {
+        private volatile T value;
+        private volatile long expiresAt;
+        private volatile long generationTime;
+        private volatile long ttl;
+        private long accessTime;
+        private int weight;
+        private boolean inWindow;
+        private int heapIndex = -1;
+        private Node<T> prev;
+        private Node<T> next;
+        private Node<T> writePrev;
+        private Node<T> writeNext;
+
+        private Node(T value){
+            this.value = value;
+        }
+
+        /**
+         * @return the sentinel of an empty list, which links to itself in both lists
+         */
+        private static <T> Node<T> sentinel(){
+            Node<T> node = new Node<>(null);
+            node.prev = node;
+            node.next = node;
+            node.writePrev = node;
+            node.writeNext = node;
+            return node;
+        }
+    }
+
+    /**
+     * An object of a snapshot of the buffer, and how long it had left before it would time out when the snapshot was
+     * taken.
+     */
+    public static final class SnapshotEntry<T> {
+        private final T value;
+        private final long remainingMillis;
+
+        /**
+         * @param value             the object, not null
+         * @param remainingMillis   the time, in milliseconds, until the object times out
+         */
+        public SnapshotEntry(T value, long remainingMillis){
+            this.value = value;
+            this.remainingMillis = remainingMillis;
+        }
+
+        /**
+         * @return the object
+         */
+        public T value(){
+            return this.value;
+        }
+
+        /**
+         * @return the time, in milliseconds, until the object times out
+         */
+        public long remainingMillis(){
+            return this.remainingMillis;
+        }
+    }
+
+    /**
+     * An object that has left the buffer, waiting to be handed to the removal listener.
+     */
+    private static final class Removal<T> {
+        private final T value;
+        private final RemovalCause cause;
+
+        private Removal(T value, RemovalCause cause){
+            this.value = value;
+            this.cause = cause;
+        }
     }
 
+    /**
+     * Collects the settings of an FSFTBuffer. Settings that are not given keep the same defaults as FSFTBuffer().
+     */
+    public static class Builder<T extends Bufferable> {
+        private int capacity = DSIZE;
+        private int timeout = DTIMEOUT;
+        private long maximumWeight = Long.MAX_VALUE;
+        private Weigher<? super T> weigher = t -> 0;
+        private RemovalListener<? super T> removalListener = null;
+        private boolean bufferedReads = false;
+        private boolean admissionFilter = false;
+        private double refreshFraction = 0;
+        private Executor refreshExecutor = ForkJoinPool.commonPool();
+        private Ticker ticker = Ticker.systemTicker();
+        private Expiry<? super T> expiry = null;
+
+        /**
+         * @param capacity the number of objects the buffer can hold
+         * @return this builder
+         */
+        public Builder<T> capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param timeout the duration, in seconds, an object should be in the buffer before it times out
+         * @return this builder
+         */
+        public Builder<T> timeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Limits the buffer by the total weight of its objects, on top of its capacity. The least recently accessed
+         * objects are removed until the new total weight is at most {@code maximumWeight}.
+         *
+         * @param maximumWeight the largest total weight the buffer may hold, >= 0
+         * @param weigher       gives the weight of each object, for example its size in bytes
+         * @return this builder
+         */
+        public Builder<T> maximumWeight(long maximumWeight, Weigher<? super T> weigher) {
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * @param bufferedReads if true, get does not take the buffer's lock. Reads are recorded in a bounded buffer
+         *                      and applied to the least recently used order in batches, so that order becomes
+         *                      approximate (a read may be dropped when many threads read at once).
+         * @return this builder
+         */
+        public Builder<T> bufferedReads(boolean bufferedReads) {
+            this.bufferedReads = bufferedReads;
+            return this;
+        }
+
+        /**
+         * @param admissionFilter if true, a full buffer only lets a new object take the place of its least recently
+         *                        used object if the new object has been used more often recently (W-TinyLFU). New
+         *                        objects always get a short stay in a small window, so objects that are used in
+         *                        quick bursts are still kept. This protects often used objects from a burst of
+         *                        objects that are only used once.
+         * @return this builder
+         */
+        public Builder<T> admissionFilter(boolean admissionFilter) {
+            this.admissionFilter = admissionFilter;
+            return this;
+        }
+
+        /**
+         * Makes getOrLoad and getOrLoadAsync refresh objects before they time out. Once an object has been in the
+         * buffer for {@code fraction} of the timeout since it was put, touched or updated, the next getOrLoad of it
+         * still returns it right away, but also runs the loader again on {@code executor} and puts the new object in
+         * its place. Objects that are not asked for again still time out as usual.
+         *
+         * @param fraction  how far into the timeout objects are refreshed, 0 < fraction < 1, or 0 to never refresh
+         * @param executor  runs the loaders of refreshes
+         * @return this builder
+         */
+        public Builder<T> refreshAfter(double fraction, Executor executor) {
+            this.refreshFraction = fraction;
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Makes getOrLoad and getOrLoadAsync refresh objects before they time out, running the loaders on the common
+         * ForkJoinPool. See refreshAfter(double, Executor).
+         *
+         * @param fraction  how far into the timeout objects are refreshed, 0 < fraction < 1, or 0 to never refresh
+         * @return this builder
+         */
+        public Builder<T> refreshAfter(double fraction) {
+            return this.refreshAfter(fraction, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * @param ticker    the clock that the buffer measures timeouts with, instead of System.nanoTime(). A
+         *                  CachedTicker makes reading the time cheaper, and a manual ticker lets tests and benchmarks
+         *                  control time.
+         * @return this builder
+         */
+        public Builder<T> ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @param expiry    chooses how long each object may stay in the buffer when it is put, updated, touched or
+         *                  read, instead of the timeout. Objects put with put(T, Duration) still get the given time to
+         *                  live when they are put.
+         * @return this builder
+         */
+        public Builder<T> expiry(Expiry<? super T> expiry) {
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * @param removalListener is told about every object that leaves the buffer and why, see RemovalListener
+         * @return this builder
+         */
+        public Builder<T> removalListener(RemovalListener<? super T> removalListener) {
+            this.removalListener = removalListener;
+            return this;
+        }
+
+        /**
+         * @return a new, empty FSFTBuffer with the settings of this builder
+         */
+        public FSFTBuffer<T> build() {
+            return new FSFTBuffer<>(this);
+        }
+    }
 
 }
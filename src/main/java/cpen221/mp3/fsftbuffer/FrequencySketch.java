@@ -0,0 +1,118 @@
+package cpen221.mp3.fsftbuffer;
+
+class FrequencySketch {
+
+    //FrequencySketch
+
+    //Abstraction Function
+    /*
+    A FrequencySketch is a count-min sketch that estimates how often each id has been used recently, using a fixed
+    amount of memory. "table" is an array of longs, each holding sixteen 4-bit counters. An id is hashed to one counter
+    in each of four different longs of the table, and its estimated frequency is the smallest of those four counters,
+    which can be larger but never smaller than the true count (until the counters are aged). A counter saturates at
+    15.
+
+    "additions" counts the increments since the counters were last aged. Once it reaches "sampleSize", every counter
+    is halved, so that ids which used to be popular but are no longer used lose their frequency over time.
+     */
+
+    //Representation Invariants
+    /*
+    1. table.length is a power of two and tableMask == table.length - 1.
+    2. 0 <= additions < sampleSize.
+     */
+
+    //Thread Safety Arguments
+    /*
+    A FrequencySketch is not thread safe. The FSFTBuffer only uses it while holding its lock.
+     */
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    /* clears the highest bit of every 4-bit counter, after the table has been shifted right by one */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /* the largest table that will be allocated, 32 MB */
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 22;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Creates a sketch sized for a buffer that holds up to {@code maximumSize} objects.
+     * @param maximumSize the number of objects that the buffer can hold, > 0
+     */
+    FrequencySketch(long maximumSize) {
+        int size = 1;
+        while (size < maximumSize && size < MAXIMUM_TABLE_SIZE) {
+            size *= 2;
+        }
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * @param id the id to estimate the frequency of
+     * @return the estimated number of recent uses of {@code id}, between 0 and 15
+     */
+    int frequency(String id) {
+        int hash = spread(id.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records one use of {@code id}, aging every counter once enough uses have been recorded.
+     * @param id the id that was used
+     */
+    void increment(String id) {
+        int hash = spread(id.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            long mask = 0xfL << offset;
+            if ((this.table[index] & mask) != mask) {
+                this.table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if (added && ++this.additions == this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions = this.additions / 2;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += (h >>> 32);
+        return ((int) h) & this.tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,116 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+class ReadBuffer<E> {
+
+    //ReadBuffer
+
+    //Abstraction Function
+    /*
+    A ReadBuffer is a bounded, lossy record of read events that many threads can add to without taking a lock, and
+    that one thread at a time empties in a batch. It is split into "stripes", and a reading thread always writes into
+    the stripe picked from its own thread id, so that threads on different cores rarely write to the same counter.
+
+    Each stripe is a ring of STRIPE_SIZE slots. "writes[i]" counts every event ever added to stripe i and "reads[i]"
+    counts every event ever taken out of it, so the events currently waiting in stripe i are the slots from
+    reads[i] to writes[i] - 1 (modulo STRIPE_SIZE). When a stripe is full, new events for it are dropped: recording
+    reads only decides the least recently used order, so losing a few of them only makes that order approximate.
+     */
+
+    //Representation Invariants
+    /*
+    1. For every stripe i, reads[i] <= writes[i] <= reads[i] + STRIPE_SIZE.
+    2. slots.length() == stripes * STRIPE_SIZE, and stripes is a power of two.
+     */
+
+    //Thread Safety Arguments
+    /*
+    offer may be called by any number of threads. A slot is claimed with a compare-and-set on the write counter of its
+    stripe, so no two threads write the same slot, and it is published with a volatile write of the array element.
+    drain must only be called by one thread at a time (the FSFTBuffer calls it while holding its lock). It only
+    consumes slots that have been published, and it advances the read counter with a volatile write, so a writer
+    never reuses a slot before it has been consumed.
+     */
+
+    /* the number of events a stripe can hold before it starts dropping them */
+    static final int STRIPE_SIZE = 32;
+
+    /* once a stripe holds this many events the reader that filled it should try to drain the buffer */
+    static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+
+    private final int stripes;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLong[] writes;
+    private final AtomicLong[] reads;
+
+    /**
+     * Creates an empty buffer with one stripe per available processor, rounded up to a power of two.
+     */
+    ReadBuffer() {
+        int count = 1;
+        while (count < Runtime.getRuntime().availableProcessors()) {
+            count *= 2;
+        }
+        this.stripes = count;
+        this.slots = new AtomicReferenceArray<>(count * STRIPE_SIZE);
+        this.writes = new AtomicLong[count];
+        this.reads = new AtomicLong[count];
+        for (int i = 0; i < count; i++) {
+            this.writes[i] = new AtomicLong();
+            this.reads[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Records an event without blocking. The event is dropped if the stripe of the calling thread is full.
+     *
+     * @param e the event to record, not null
+     * @return true if the stripe is filling up and should be drained soon, false otherwise
+     */
+    boolean offer(E e) {
+        int stripe = (int) Thread.currentThread().getId() & (this.stripes - 1);
+        AtomicLong write = this.writes[stripe];
+        long head = this.reads[stripe].get();
+        long tail = write.get();
+        long pending = tail - head;
+
+        if (pending >= STRIPE_SIZE) {
+            return true;
+        }
+        if (write.compareAndSet(tail, tail + 1)) {
+            this.slots.set(stripe * STRIPE_SIZE + (int) (tail & (STRIPE_SIZE - 1)), e);
+            pending++;
+        }
+        return pending >= DRAIN_THRESHOLD;
+    }
+
+    /**
+     * Takes every published event out of the buffer, oldest first within each stripe.
+     * Requires that no other thread is draining at the same time.
+     *
+     * @param consumer what to do with each event
+     */
+    void drain(Consumer<E> consumer) {
+        for (int stripe = 0; stripe < this.stripes; stripe++) {
+            AtomicLong read = this.reads[stripe];
+            long head = read.get();
+            long tail = this.writes[stripe].get();
+
+            while (head < tail) {
+                int slot = stripe * STRIPE_SIZE + (int) (head & (STRIPE_SIZE - 1));
+                E e = this.slots.get(slot);
+                if (e == null) {
+                    // claimed but not yet published, pick it up on the next drain
+                    break;
+                }
+                this.slots.lazySet(slot, null);
+                consumer.accept(e);
+                head++;
+            }
+            read.set(head);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cpen221.mp3.fsftbuffer;
+
+public enum RemovalCause {
+
+    /**
+     * The object was bumped out to keep the buffer within its capacity or its maximum weight.
+     */
+    SIZE,
+
+    /**
+     * The object timed out.
+     */
+    EXPIRED,
+
+    /**
+     * The object was removed with invalidate.
+     */
+    EXPLICIT,
+
+    /**
+     * The object was replaced by a put or an update of another object with the same id.
+     */
+    REPLACED
+
+}
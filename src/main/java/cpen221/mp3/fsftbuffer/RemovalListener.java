@@ -0,0 +1,16 @@
+package cpen221.mp3.fsftbuffer;
+
+public interface RemovalListener<T> {
+
+    /**
+     * Called once for every object that leaves an FSFTBuffer. It is called after the buffer's lock has been released,
+     * by the thread whose operation removed the object, or by a later operation of another thread, so it may be slow
+     * (for example write the object to disk) without holding up other users of the buffer. Removals are not
+     * necessarily reported in the order in which they happened.
+     *
+     * @param t     the object that was removed, not null
+     * @param cause why the object was removed
+     */
+    void onRemoval(T t, RemovalCause cause);
+
+}
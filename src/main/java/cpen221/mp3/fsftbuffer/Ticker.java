@@ -0,0 +1,30 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.TimeUnit;
+
+public interface Ticker {
+
+    /**
+     * Reads the current time. Only the difference between two readings of the same Ticker is meaningful, unless the
+     * Ticker says otherwise.
+     *
+     * @return the current time, in nanoseconds
+     */
+    long read();
+
+    /**
+     * @return a Ticker that reads System.nanoTime()
+     */
+    static Ticker systemTicker() {
+        return System::nanoTime;
+    }
+
+    /**
+     * @return a Ticker that reads System.currentTimeMillis(), converted to nanoseconds, so that its readings are the
+     * time since January 1970 at midnight UTC and are only precise to the millisecond
+     */
+    static Ticker wallClockTicker() {
+        return () -> TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+}
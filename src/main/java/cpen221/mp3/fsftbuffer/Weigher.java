@@ -0,0 +1,14 @@
+package cpen221.mp3.fsftbuffer;
+
+public interface Weigher<T> {
+
+    /**
+     * Computes how much of an FSFTBuffer's maximum weight an object uses up. The weight of an object is computed
+     * when it is put into or updated in the buffer, and must not change while the object is in the buffer.
+     *
+     * @param t the object to weigh, not null
+     * @return the weight of {@code t}, >= 0
+     */
+    int weigh(T t);
+
+}
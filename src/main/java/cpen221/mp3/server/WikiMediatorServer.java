@@ -1,5 +1,6 @@
 package cpen221.mp3.server;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
 import cpen221.mp3.wikimediator.WikiMediator;
 
 import java.net.ServerSocket;
@@ -374,6 +375,19 @@ public class WikiMediatorServer {
                 return timeoutResponse;
             }
 
+        }else if(methodToCall.equals("cacheStats")){
+
+            CacheStats stats = wikiMediator.cacheStats();
+            CacheStats searchStats = wikiMediator.searchCacheStats();
+
+            String status = "success";
+
+            // assemble the object to be used as a reply
+            StatsResponse replyObj = new StatsResponse(id,status,stats,searchStats);
+
+            String replyJSON = gson.toJson(replyObj);
+
+            return replyJSON;
         }else if(methodToCall.equals("stop")){
 
             // assemble the object to be used as a reply
@@ -437,6 +451,25 @@ class IntResponse{
     }
 }
 
+class StatsResponse{
+
+    private final String id;
+    private final String status;
+    private final double hitRate;
+    private final double searchHitRate;
+    private final CacheStats response;
+    private final CacheStats search;
+
+    public StatsResponse(String id, String status, CacheStats response, CacheStats search){
+        this.id = id;
+        this.status = status;
+        this.hitRate = response.hitRate();
+        this.searchHitRate = search.hitRate();
+        this.response = response;
+        this.search = search;
+    }
+}
+
 class StopResponse{
     private final String id;
     private final String response;
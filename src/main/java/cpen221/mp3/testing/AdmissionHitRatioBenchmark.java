@@ -0,0 +1,69 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class AdmissionHitRatioBenchmark {
+
+    private static final int TITLES = 100_000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int REQUESTS = 2_000_000;
+    private static final int[] CAPACITIES = {500, 2_000, 10_000};
+    private static final int[] SCAN_PERCENTS = {0, 20, 50};
+
+    /**
+     * Replays the same trace of page titles against an LRU FSFTBuffer and against an FSFTBuffer with the
+     * W-TinyLFU admission filter, and prints the hit ratio of both. Popular titles are drawn from a Zipf distribution
+     * over TITLES titles, and SCAN_PERCENT of the requests are for titles that are never requested again, like a
+     * crawler walking random pages.
+     */
+    public static void main(String[] args) {
+        for (int scanPercent : SCAN_PERCENTS) {
+            String[] trace = trace(scanPercent);
+            for (int capacity : CAPACITIES) {
+                FSFTBuffer<TestT> lru = new FSFTBuffer<>(capacity, FSFTBuffer.DTIMEOUT);
+                FSFTBuffer<TestT> tinyLfu = new FSFTBuffer.Builder<TestT>()
+                    .capacity(capacity).timeout(FSFTBuffer.DTIMEOUT).admissionFilter(true).build();
+
+                System.out.printf("scan %2d%%, capacity %6d: LRU %5.2f%%, TinyLFU %5.2f%%%n",
+                    scanPercent, capacity, 100 * replay(lru, trace), 100 * replay(tinyLfu, trace));
+            }
+        }
+    }
+
+    private static double replay(FSFTBuffer<TestT> buffer, String[] trace) {
+        long hits = 0;
+        for (String title : trace) {
+            if (buffer.getIfPresent(title) != null) {
+                hits++;
+            } else {
+                buffer.put(new TestT(title));
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static String[] trace(int scanPercent) {
+        double[] cumulative = new double[TITLES];
+        double sum = 0;
+        for (int i = 0; i < TITLES; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(221);
+        String[] trace = new String[REQUESTS];
+        int scanned = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (random.nextInt(100) < scanPercent) {
+                trace[i] = "scan" + scanned++;
+            } else {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = "title" + (rank >= 0 ? rank : -rank - 1);
+            }
+        }
+        return trace;
+    }
+}
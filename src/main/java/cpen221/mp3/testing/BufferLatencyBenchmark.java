@@ -0,0 +1,73 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.Random;
+
+public class BufferLatencyBenchmark {
+
+    private static final int[] CAPACITIES = {32, 1_000, 32_000, 1_000_000};
+    private static final int OPERATIONS = 2_000_000;
+    private static final int ROUNDS = 3;
+
+    /**
+     * Measures the average latency of the FSFTBuffer operations for buffers of increasing capacity.
+     * Each buffer is filled to capacity first, so that every put has to bump out an object.
+     * The reported latency should stay roughly flat as the capacity grows.
+     */
+    public static void main(String[] args) {
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + (round + 1));
+            for (int capacity : CAPACITIES) {
+                run(capacity);
+            }
+        }
+    }
+
+    private static void run(int capacity) {
+        FSFTBuffer<TestT> buffer = new FSFTBuffer<>(capacity, FSFTBuffer.DTIMEOUT);
+        TestT[] objects = new TestT[capacity];
+        for (int i = 0; i < capacity; i++) {
+            objects[i] = new TestT("page" + i);
+            buffer.put(objects[i]);
+        }
+
+        Random random = new Random(221);
+        int[] keys = new int[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            keys[i] = random.nextInt(capacity);
+        }
+
+        long start = System.nanoTime();
+        for (int key : keys) {
+            buffer.get(objects[key].id());
+        }
+        long getTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int key : keys) {
+            buffer.touch(objects[key].id());
+        }
+        long touchTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int key : keys) {
+            buffer.update(objects[key]);
+        }
+        long updateTime = System.nanoTime() - start;
+
+        TestT[] fresh = new TestT[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            fresh[i] = new TestT("fresh" + i);
+        }
+        start = System.nanoTime();
+        for (TestT object : fresh) {
+            buffer.put(object);
+        }
+        long putTime = System.nanoTime() - start;
+
+        System.out.printf("capacity %9d: get %6.1f ns/op, touch %6.1f ns/op, update %6.1f ns/op, put %6.1f ns/op%n",
+            capacity, (double) getTime / OPERATIONS, (double) touchTime / OPERATIONS,
+            (double) updateTime / OPERATIONS, (double) putTime / OPERATIONS);
+    }
+}
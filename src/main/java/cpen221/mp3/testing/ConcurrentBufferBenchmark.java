@@ -0,0 +1,88 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.ConcurrentFSFTBuffer;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class ConcurrentBufferBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int CAPACITY = 100_000;
+    private static final int KEYS = 200_000;
+    private static final int PUT_PERCENT = 10;
+    private static final long DURATION_MILLIS = 2000;
+
+    /**
+     * Measures the throughput of a single FSFTBuffer and of a ConcurrentFSFTBuffer when they are shared by 1 to 32
+     * threads. Every thread does PUT_PERCENT puts and otherwise gets, on keys picked uniformly from twice the
+     * capacity. The segmented buffer should keep scaling with the number of cores while the single buffer does not.
+     */
+    public static void main(String[] args) throws Exception {
+        TestT[] objects = new TestT[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            objects[i] = new TestT("page" + i);
+        }
+
+        for (int threads : THREADS) {
+            FSFTBuffer<TestT> single = new FSFTBuffer<>(CAPACITY, FSFTBuffer.DTIMEOUT);
+            ConcurrentFSFTBuffer<TestT> segmented = new ConcurrentFSFTBuffer<>(CAPACITY, FSFTBuffer.DTIMEOUT);
+
+            double singleOps = run(threads, objects, single::getIfPresent, single::put);
+            double segmentedOps = run(threads, objects, segmented::getIfPresent, segmented::put);
+
+            System.out.printf("%2d threads: FSFTBuffer %12.0f ops/s, ConcurrentFSFTBuffer %12.0f ops/s%n",
+                threads, singleOps, segmentedOps);
+        }
+    }
+
+    private static double run(int threads, TestT[] objects, Consumer<String> get, Consumer<TestT> put)
+        throws Exception {
+        for (TestT object : objects) {
+            put.accept(object);
+        }
+
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        AtomicLong operations = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        long[] end = new long[1];
+
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                long count = 0;
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    return;
+                }
+                while (System.currentTimeMillis() < end[0]) {
+                    TestT object = objects[random.nextInt(objects.length)];
+                    if (random.nextInt(100) < PUT_PERCENT) {
+                        put.accept(object);
+                    } else {
+                        get.accept(object.id());
+                    }
+                    count++;
+                }
+                operations.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        end[0] = System.currentTimeMillis() + DURATION_MILLIS;
+        barrier.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return operations.get() * 1000.0 / DURATION_MILLIS;
+    }
+}
@@ -0,0 +1,83 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.CachedTicker;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import cpen221.mp3.fsftbuffer.Ticker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ExpirationBenchmark {
+
+    private static final int CAPACITY = 100_000;
+    private static final int TIMEOUT = 60;
+    private static final int KEYS = 1_000_000;
+    private static final int OPERATIONS = 5_000_000;
+    private static final long MILLIS_PER_OPERATION = 1;
+    private static final int TICKER_READS = 50_000_000;
+
+    /**
+     * Replays OPERATIONS gets (and puts on a miss) of keys picked uniformly from KEYS against a buffer whose clock is a
+     * ManualTicker advanced by MILLIS_PER_OPERATION after every operation, so that the run covers more than an hour of
+     * simulated time in a few seconds and most objects time out rather than being bumped out. Prints the latency per
+     * operation, the hit ratio and the number of objects that timed out, which are the same on every run.
+     * Then prints the cost of reading System.nanoTime() and of reading a CachedTicker.
+     */
+    public static void main(String[] args) {
+        ManualTicker ticker = new ManualTicker();
+        AtomicLong expired = new AtomicLong();
+        FSFTBuffer<TestT> buffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(CAPACITY).timeout(TIMEOUT).ticker(ticker)
+            .removalListener((t, cause) -> {
+                if (cause == RemovalCause.EXPIRED) {
+                    expired.incrementAndGet();
+                }
+            }).build();
+
+        TestT[] objects = new TestT[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            objects[i] = new TestT("page" + i);
+        }
+        Random random = new Random(221);
+        int[] keys = new int[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            keys[i] = random.nextInt(KEYS);
+        }
+
+        long hits = 0;
+        long start = System.nanoTime();
+        for (int key : keys) {
+            if (buffer.getIfPresent(objects[key].id()) != null) {
+                hits++;
+            } else {
+                buffer.put(objects[key]);
+            }
+            ticker.advance(MILLIS_PER_OPERATION, TimeUnit.MILLISECONDS);
+        }
+        long time = System.nanoTime() - start;
+
+        System.out.printf("%d operations over %d simulated seconds: %.0f ns/op, hit ratio %.2f%%, %d timed out%n",
+            OPERATIONS, TimeUnit.NANOSECONDS.toSeconds(ticker.read()), (double) time / OPERATIONS,
+            100.0 * hits / OPERATIONS, expired.get());
+
+        try (CachedTicker cached = new CachedTicker(Ticker.systemTicker())) {
+            System.out.printf("System.nanoTime(): %.2f ns/read%n", readCost(Ticker.systemTicker()));
+            System.out.printf("CachedTicker:      %.2f ns/read%n", readCost(cached));
+        }
+    }
+
+    private static double readCost(Ticker ticker) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < TICKER_READS; i++) {
+            sum += ticker.read();
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return (double) time / TICKER_READS;
+    }
+}
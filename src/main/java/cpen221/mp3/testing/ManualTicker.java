@@ -0,0 +1,39 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ManualTicker implements Ticker {
+
+    private final AtomicLong now;
+
+    /**
+     * Creates a ticker that reads 0 until it is advanced.
+     */
+    public ManualTicker(){
+        this(0);
+    }
+
+    /**
+     * Creates a ticker that reads {@code nanos} until it is advanced.
+     */
+    public ManualTicker(long nanos){
+        this.now = new AtomicLong(nanos);
+    }
+
+    /**
+     * Moves the time forward.
+     * @param duration  how far to move the time, >= 0
+     * @param unit      the unit of {@code duration}
+     */
+    public void advance(long duration, TimeUnit unit){
+        this.now.addAndGet(unit.toNanos(duration));
+    }
+
+    @Override
+    public long read(){
+        return this.now.get();
+    }
+}
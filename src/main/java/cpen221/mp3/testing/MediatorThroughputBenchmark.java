@@ -0,0 +1,92 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.wikibackend.SyntheticWikiBackend;
+import cpen221.mp3.wikimediator.WikiMediator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MediatorThroughputBenchmark {
+
+    private static final int[] THREADS = {1, 4, 16};
+    private static final int PAGES = 20_000;
+    private static final int LINKS_PER_PAGE = 20;
+    private static final Duration LATENCY = Duration.ofMillis(2);
+    private static final int CAPACITY = 2_000;
+    private static final int STALENESS = 3600;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int SEARCH_PERCENT = 10;
+    private static final long DURATION_MILLIS = 3000;
+
+    /**
+     * Measures the throughput of a WikiMediator that gets its pages from a SyntheticWikiBackend, which answers every
+     * request after LATENCY, so that the mediator can be measured without Wikipedia. Threads request pages drawn from
+     * a Zipf distribution, and SEARCH_PERCENT of the requests are searches. Prints the requests per second, the hit
+     * rates of the page and search caches, and how many requests reached the wiki.
+     */
+    public static void main(String[] args) throws Exception {
+        double[] cumulative = new double[PAGES];
+        double sum = 0;
+        for (int i = 0; i < PAGES; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+
+        for (int threads : THREADS) {
+            SyntheticWikiBackend wiki = new SyntheticWikiBackend(PAGES, LINKS_PER_PAGE, LATENCY);
+            WikiMediator mediator = new WikiMediator(CAPACITY, STALENESS, wiki);
+            long operations = run(threads, mediator, wiki, cumulative);
+
+            System.out.printf("%2d threads: %10.0f requests/s, page hit rate %5.2f%%, search hit rate %5.2f%%, "
+                    + "%6.3f wiki requests per request%n", threads, operations * 1000.0 / DURATION_MILLIS,
+                100 * mediator.cacheStats().hitRate(), 100 * mediator.searchCacheStats().hitRate(),
+                (double) wiki.requestCount() / operations);
+        }
+    }
+
+    private static long run(int threads, WikiMediator mediator, SyntheticWikiBackend wiki, double[] cumulative)
+        throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        AtomicLong operations = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        long end = System.currentTimeMillis() + DURATION_MILLIS;
+        double sum = cumulative[cumulative.length - 1];
+
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                long count = 0;
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    return;
+                }
+                while (System.currentTimeMillis() < end) {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                    String title = wiki.title(rank >= 0 ? rank : -rank - 1);
+                    if (random.nextInt(100) < SEARCH_PERCENT) {
+                        mediator.search(title, 5);
+                    } else {
+                        mediator.getPage(title);
+                    }
+                    count++;
+                }
+                operations.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        barrier.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.get();
+    }
+}
@@ -0,0 +1,81 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+public class ReadThroughputBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int HOT_KEYS = 1_000;
+    private static final long DURATION_MILLIS = 2000;
+
+    /**
+     * Measures the throughput of reads of a small set of hot objects, shared by 1 to 32 threads, for a
+     * ConcurrentHashMap, an FSFTBuffer, and an FSFTBuffer with buffered reads. The buffered FSFTBuffer should stay
+     * close to the ConcurrentHashMap.
+     */
+    public static void main(String[] args) throws Exception {
+        TestT[] objects = new TestT[HOT_KEYS];
+        ConcurrentHashMap<String, TestT> map = new ConcurrentHashMap<>();
+        FSFTBuffer<TestT> locked = new FSFTBuffer<>(HOT_KEYS, FSFTBuffer.DTIMEOUT);
+        FSFTBuffer<TestT> buffered = new FSFTBuffer.Builder<TestT>()
+            .capacity(HOT_KEYS).timeout(FSFTBuffer.DTIMEOUT).bufferedReads(true).build();
+
+        for (int i = 0; i < HOT_KEYS; i++) {
+            objects[i] = new TestT("page" + i);
+            map.put(objects[i].id(), objects[i]);
+            locked.put(objects[i]);
+            buffered.put(objects[i]);
+        }
+
+        for (int threads : THREADS) {
+            double mapOps = run(threads, objects, map::get);
+            double lockedOps = run(threads, objects, locked::get);
+            double bufferedOps = run(threads, objects, buffered::get);
+
+            System.out.printf("%2d threads: ConcurrentHashMap %12.0f ops/s, FSFTBuffer %12.0f ops/s, "
+                + "buffered FSFTBuffer %12.0f ops/s%n", threads, mapOps, lockedOps, bufferedOps);
+        }
+    }
+
+    private static double run(int threads, TestT[] objects, Function<String, TestT> get) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        AtomicLong operations = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        long end = System.currentTimeMillis() + DURATION_MILLIS;
+
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                long count = 0;
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    return;
+                }
+                while (System.currentTimeMillis() < end) {
+                    get.apply(objects[random.nextInt(objects.length)].id());
+                    count++;
+                }
+                operations.addAndGet(count);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        barrier.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        return operations.get() * 1000.0 / DURATION_MILLIS;
+    }
+}
@@ -0,0 +1,115 @@
+package cpen221.mp3.testing;
+
+import cpen221.mp3.wikimediator.RequestRanking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+public class ZeitgeistBenchmark {
+
+    private static final int KEYS = 10_000_000;
+    private static final int SORTED_KEYS = 1_000_000;
+    private static final int[] THREADS = {1, 4};
+    private static final int ZEITGEIST_PERCENT = 1;
+    private static final int LIMIT = 10;
+    private static final long DURATION_MILLIS = 3000;
+
+    /**
+     * Fills a RequestRanking with KEYS different titles, then runs a mixed load of increments of random titles, most
+     * of them to a small set of popular titles, and top(LIMIT) calls, as zeitgeist makes them. Prints the time taken
+     * to fill the ranking, the throughput of the mixed load, and the average latency of top(LIMIT). For comparison it
+     * then times the sort that zeitgeist used to do on every call, over SORTED_KEYS titles only. Needs about 3 GB of
+     * heap, run it with -Xmx3g.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] titles = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            titles[i] = "title" + i;
+        }
+
+        RequestRanking ranking = new RequestRanking();
+        long start = System.nanoTime();
+        for (String title : titles) {
+            ranking.increment(title);
+        }
+        System.out.printf("filled %d titles in %d ms%n", KEYS, (System.nanoTime() - start) / 1_000_000);
+
+        for (int threads : THREADS) {
+            AtomicLong increments = new AtomicLong();
+            AtomicLong tops = new AtomicLong();
+            AtomicLong topNanos = new AtomicLong();
+            run(threads, ranking, titles, increments, tops, topNanos);
+            System.out.printf("%2d threads: %10.0f increments/s, %8.0f zeitgeist/s, top(%d) %6.0f ns%n", threads,
+                increments.get() * 1000.0 / DURATION_MILLIS, tops.get() * 1000.0 / DURATION_MILLIS, LIMIT,
+                (double) topNanos.get() / Math.max(1, tops.get()));
+        }
+        System.out.println("top " + LIMIT + ": " + ranking.top(LIMIT));
+
+        Map<String, Integer> counts = new HashMap<>(SORTED_KEYS * 2);
+        for (int i = 0; i < SORTED_KEYS; i++) {
+            counts.put(titles[i], ranking.count(titles[i]));
+        }
+        start = System.nanoTime();
+        List<String> sorted = counts.entrySet().stream()
+            .sorted(Comparator.comparingInt(Map.Entry::getValue))
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+        Collections.reverse(sorted);
+        new ArrayList<>(sorted.subList(0, LIMIT));
+        System.out.printf("sorting %d titles, as zeitgeist used to: %d ms per call%n", SORTED_KEYS,
+            (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void run(int threads, RequestRanking ranking, String[] titles, AtomicLong increments,
+                            AtomicLong tops, AtomicLong topNanos) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        List<Thread> workers = new ArrayList<>();
+        long end = System.currentTimeMillis() + DURATION_MILLIS;
+
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                long count = 0;
+                long topCount = 0;
+                long nanos = 0;
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    return;
+                }
+                while (System.currentTimeMillis() < end) {
+                    if (random.nextInt(100) < ZEITGEIST_PERCENT) {
+                        long before = System.nanoTime();
+                        ranking.top(LIMIT);
+                        nanos += System.nanoTime() - before;
+                        topCount++;
+                    } else {
+                        // half of the increments go to the first thousand titles
+                        int i = random.nextBoolean() ? random.nextInt(1_000) : random.nextInt(titles.length);
+                        ranking.increment(titles[i]);
+                        count++;
+                    }
+                }
+                increments.addAndGet(count);
+                tops.addAndGet(topCount);
+                topNanos.addAndGet(nanos);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        barrier.await();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
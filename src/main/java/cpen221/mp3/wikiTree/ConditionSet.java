@@ -1,5 +1,7 @@
 package cpen221.mp3.wikiTree;
 
+import cpen221.mp3.fsftbuffer.Ticker;
+
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -11,9 +13,9 @@ public class ConditionSet {
     /*
     Represents a pair of conditions that indicate if a Node can continue to make children nodes in a buildTree
     operation. The first condition is that the current time is not greater than the expiry time of the object.
-    The expiry time, which is in nanoseconds since the system timer started, is stored in the private final long
+    The expiry time, which is a reading of the Ticker "ticker" in nanoseconds, is stored in the private final long
     "expiry". The timespan that a ConditionSet can be valid for is specified by the user, therefore "expiry" is
-    characterized as the creation time of the ConditionSet in relation to the system timer + the user specified
+    characterized as the creation time of the ConditionSet according to the ticker + the user specified
     timeframe.
 
     The second condition is that the destination object has not been found yet by another node. It is stored in the
@@ -31,13 +33,14 @@ public class ConditionSet {
 
     //Thread Safety Arguments
     /*
-    Because the expiry field of a ConditionSet is immutable, and the check method is only an observer method, the only
+    Because the expiry and ticker fields of a ConditionSet are immutable (and the ticker is thread safe), and the check method is only an observer method, the only
     method/fields of concern are "found" and "terminate". To safeguard against errors in multi-threaded environments,
     leading to terminate modifying "found" unpredictably, the method was made to be synchronized.
      */
 
     private boolean found;
     private final long expiry;
+    private final Ticker ticker;
 
     //Due to not being able to access specific nodes from this class, and since there is no concrete way to determine
     //the validity of the expiry time, no checkRep is provided for this class.
@@ -48,8 +51,19 @@ public class ConditionSet {
      *                  seconds.
      */
     public ConditionSet(long expiry){
+        this(expiry, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor for a ConditionSet that measures time with {@code ticker}
+     * @param expiry    the time that can elapse between a ConditionSet's creation to when it becomes invalid, in
+     *                  seconds.
+     * @param ticker    the clock to measure the time with
+     */
+    public ConditionSet(long expiry, Ticker ticker){
         this.found = false;
-        long initializationTime = System.nanoTime();
+        this.ticker = ticker;
+        long initializationTime = ticker.read();
         this.expiry = TimeUnit.NANOSECONDS.convert(expiry, TimeUnit.SECONDS) + initializationTime;
     }
 
@@ -60,7 +74,7 @@ public class ConditionSet {
      * @throws TimeoutException if the ConditionSet has "timed out"
      */
     public boolean check() throws TimeoutException {
-        if(System.nanoTime() > this.expiry){
+        if(this.ticker.read() > this.expiry){
             throw new TimeoutException();
         }
         return (!(this.found));
@@ -1,9 +1,8 @@
 package cpen221.mp3.wikiTree;
 
-import cpen221.mp3.wikimediator.WikiMediator;
-import org.fastily.jwiki.core.MQuery;
-import org.fastily.jwiki.core.NS;
-import org.fastily.jwiki.core.Wiki;
+import cpen221.mp3.fsftbuffer.Ticker;
+import cpen221.mp3.wikibackend.JWikiBackend;
+import cpen221.mp3.wikibackend.WikiBackend;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -28,8 +27,9 @@ public class Node implements Comparable<Node>{
     performance and prevent infinite recursion, all nodes in a network share a list of pages which have already been
     searched, called "alreadySearched". Finally, each node carries with itself a "ConditionSet"*, which is an object
     responsible for keeping track of the current search progress such that if a timeout is reached, or the destination
-    is found, the search will terminate in an orderly fashion. Finally, each Node carries a Wiki object in order to
-    facilitate requests to retrieve links on Wikipedia articles.
+    is found, the search will terminate in an orderly fashion. Finally, each Node carries the WikiBackend "wiki" of its
+    network in order to facilitate requests to retrieve links on Wikipedia articles. Unless the origin node was given a
+    WikiBackend, this is a connection to Wikipedia shared by all networks.
 
     *See ConditionSet class for more details on ConditionSet.
      */
@@ -68,7 +68,7 @@ public class Node implements Comparable<Node>{
     private final Set<String> alreadySearched;
     private final String destination;
     private final ConditionSet conditionSet;
-    private final static Wiki wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
+    private final WikiBackend wiki;
 
     /**
      * Constructor for the first Node in a network.
@@ -80,11 +80,42 @@ public class Node implements Comparable<Node>{
      *                      a TimeoutException is thrown in the buildTree method.
      */
     public Node(String pageName, String destination, long timeout){
+        this(pageName, destination, timeout, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor for the first Node in a network, which measures its timeout with {@code ticker}.
+     * @param pageName      The case-sensitive page name of an existing Wikipedia page for which the
+     *                      Node represents.
+     * @param destination   The case-sensitive page name of an existing Wikipedia page for which the Node may
+     *                      search for in a larger network.
+     * @param timeout       The time value in seconds for which the node may search for a Wikipedia page before
+     *                      a TimeoutException is thrown in the buildTree method.
+     * @param ticker        The clock that the timeout is measured with.
+     */
+    public Node(String pageName, String destination, long timeout, Ticker ticker){
+        this(pageName, destination, timeout, ticker, DefaultWiki.WIKI);
+    }
+
+    /**
+     * Constructor for the first Node in a network, which measures its timeout with {@code ticker} and gets links
+     * from {@code wiki}.
+     * @param pageName      The case-sensitive page name of an existing page of {@code wiki} for which the
+     *                      Node represents.
+     * @param destination   The case-sensitive page name of an existing page of {@code wiki} for which the Node may
+     *                      search for in a larger network.
+     * @param timeout       The time value in seconds for which the node may search for a page before
+     *                      a TimeoutException is thrown in the buildTree method.
+     * @param ticker        The clock that the timeout is measured with.
+     * @param wiki          The wiki that every node of the network gets the links on its page from.
+     */
+    public Node(String pageName, String destination, long timeout, Ticker ticker, WikiBackend wiki){
+        this.wiki = wiki;
         this.pageName = pageName;
         this.children = new TreeSet<>();
         this.alreadySearched = new TreeSet<>();
         this.destination = destination;
-        this.conditionSet = new ConditionSet(timeout);
+        this.conditionSet = new ConditionSet(timeout, ticker);
         this.parent = null;
     }
 
@@ -100,6 +131,7 @@ public class Node implements Comparable<Node>{
      */
     public Node(String pageName, String destination, Set<String> alreadySearched,
                 ConditionSet conditionSet, Node parent){
+        this.wiki = parent.wiki;
         this.pageName = pageName;
         this.children = new TreeSet<>();
         this.alreadySearched = alreadySearched;
@@ -124,42 +156,52 @@ public class Node implements Comparable<Node>{
         if(!this.pageName.equals(this.destination)){
 
             //initializes the first node
-            this.generateChildren();
-
-            Queue<Node> queue = new LinkedList<>();
+            this.generateChildren(wiki.getLinksOnPage(this.pageName));
 
-            queue.addAll(this.children);
+            List<Node> level = new ArrayList<>(this.children);
 
-            boolean found = false;
+            //Continues building layers until the destination is found.
+            while(true){
+                if(level.isEmpty()){
+                    throw new NoSuchElementException();
+                }
 
-            //Continues building layers and nodes until the destination is found.
-            while(!found){
-                //Pops the first node in the queue.
-                Node current = queue.remove();
+                //Checks if a node of the current layer is the destination node.
+                for(Node current : level){
+                    if(current.pageName.equals(this.destination)){
+                        return;
+                    }
+                }
 
-                //Checks if the current node is the destination node.
-                if(current.pageName.equals(this.destination)){
-                    found = true;
-                    break;
-                } else {
-                    //Builds the children for the current node and adds them to the end of the queue to search next.
-                    current.generateChildren();
-                    queue.addAll(current.children);
+                //Gets the links on the pages of the layer a batch at a time, checking the timeout before every
+                //batch, then builds the children of each node in order and adds them to the next layer to search.
+                List<Node> next = new ArrayList<>();
+                for(int start = 0; start < level.size(); start += WikiBackend.BATCH_SIZE){
+                    List<Node> batch = level.subList(start, Math.min(start + WikiBackend.BATCH_SIZE, level.size()));
+                    this.conditionSet.check();
+                    Map<String, List<String>> links = wiki.getLinksOnPages(
+                            batch.stream().map(x -> x.pageName).collect(Collectors.toList()));
+
+                    for(Node current : batch){
+                        current.generateChildren(links.getOrDefault(current.pageName, Collections.emptyList()));
+                        next.addAll(current.children);
+                    }
                 }
+                level = next;
             }
         }
     }
 
     /**
-     * Helper method for buildTree. Generates the children nodes for the current instance of Node. Requires that
-     * the current instance of Node has links on its page. Does not generate children nodes if they have already
-     * been generated in previous nodes.
+     * Helper method for buildTree. Generates the children nodes for the current instance of Node from the links on
+     * its page. Does not generate children nodes if they have already been generated in previous nodes.
+     * @param pageLinks the links on the page of the current instance of Node.
      * @throws TimeoutException if the Node which is being expanded has exceeded its timeout specified at construction.
      */
-    private synchronized void generateChildren() throws TimeoutException {
+    private synchronized void generateChildren(List<String> pageLinks) throws TimeoutException {
         if(this.conditionSet.check()){
             //gets all of the new links from the page
-            Set<String> links = (wiki.getLinksOnPage(this.pageName)).parallelStream()
+            Set<String> links = pageLinks.parallelStream()
                     .filter(x -> !this.alreadySearched.contains(x)).distinct()
                     .collect(Collectors.toCollection(TreeSet::new));
 
@@ -226,6 +268,14 @@ public class Node implements Comparable<Node>{
 
     }
 
+    /**
+     * Holds the connection to Wikipedia used by networks that were not given a WikiBackend. It is only made the first
+     * time such a network is created.
+     */
+    private static final class DefaultWiki {
+        private static final WikiBackend WIKI = new JWikiBackend();
+    }
+
     /**
      *
      * @param o the Node to compare the current instance of Node to.
@@ -0,0 +1,869 @@
+package cpen221.mp3.wikibackend;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class DumpWikiBackend implements WikiBackend, AutoCloseable {
+    /* Representation Invariant:
+     * the titles of the entries are sorted and have no duplicates
+     * entryCount == the size of the entries file / ENTRY
+     * the redirect of every entry is -1 or in [0, entryCount)
+     * the title of every entry lies within the names file, its pageOffset
+     * within the pages file and its backlinkOffset within the backlinks
+     * file
+     * every segment of a mapped file except the last is SEGMENT_SIZE bytes
+     * long, and SEGMENT_SIZE is a multiple of ENTRY and SEARCH_ENTRY
+     */
+
+    /* Abstraction Function:
+     * Represents a wiki served from a local store, built once by ingest
+     * from a MediaWiki XML dump, so that no request goes to the live site.
+     * The store is a directory of an index, titles.idx, and five data files
+     * named in it:
+     *
+     *     titles.idx     [int VERSION][pages file][backlinks file]
+     *                    [search file][entries file][names file]
+     *     entries        for every page in order of title:
+     *                    [long nameOffset][int nameLength][int redirect]
+     *                    [long pageOffset][long backlinkOffset]
+     *     names          at nameOffset: the title, nameLength bytes
+     *     pages          at pageOffset: [int textLength][text]
+     *                    [int linkCount], then for every link [title]
+     *     backlinks      at backlinkOffset: [int count], then the number
+     *                    of every page that links to the page
+     *     search         for every word of every title that is not a
+     *                    redirect, in order of the rest of the title from
+     *                    the word on, ignoring case:
+     *                    [int page number][int start of the word]
+     *
+     * where numbers are big-endian, and strings are UTF-8 preceded by
+     * their length in bytes as an int, except in the names file. Page i of
+     * the wiki is described by entry i, and redirects to page "redirect",
+     * or to none if it is -1. Only the names of the data files are read
+     * when the store is opened: the data files are memory mapped in
+     * segments of SEGMENT_SIZE bytes, "entries", "names", "pages",
+     * "backlinks" and "search", and read from the mapping when they are
+     * asked for. A title is found by binary search of the entries.
+     *
+     * A page that redirects to another is answered as that page, following
+     * at most MAX_REDIRECTS redirects. A search returns the titles that
+     * start with the query, in order of title, followed by the titles with
+     * a word that starts with the query, ignoring case, in the order of
+     * the search file. Redirects are left out of searches.
+     *
+     * Ingest streams the dump and keeps only one page in memory. The pages
+     * are written as they are read, and the titles, links and redirects
+     * are sorted with ExternalSorters, which hold at most runLength records
+     * in memory. Every file is written under a new name, and the index is
+     * moved into place last, atomically, so a store whose ingest did not
+     * finish is left as it was. The data files of the old index are then
+     * deleted.
+     */
+
+    /* Thread Safety Arguments:
+     * The fields are set in the constructor and never changed after. The
+     * mappings are never read through their own position, only through
+     * duplicates made by each call, so they can be read by any thread.
+     */
+
+    private static final int VERSION = 3;
+    private static final String INDEX = "titles.idx";
+    private static final String PAGES = "pages-";
+    private static final String BACKLINKS = "backlinks-";
+    private static final String SEARCH = "search-";
+    private static final String ENTRIES = "entries-";
+    private static final String NAMES = "names-";
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int SEARCH_ENTRY = 2 * Integer.BYTES;
+    private static final int ENTRY = 32;
+    private static final int REDIRECT_FIELD = 12;
+    private static final int PAGE_OFFSET_FIELD = 16;
+    private static final int BACKLINK_OFFSET_FIELD = 24;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int DEFAULT_RUN_LENGTH = 1_000_000;
+
+    /**
+     * a wiki link, [[Title]], [[Title|label]] or [[Title#section]], whose
+     * first group is the title
+     */
+    private static final Pattern LINK =
+        Pattern.compile("\\[\\[([^\\[\\]|#]+)(?:#[^\\[\\]|]*)?"
+            + "(?:\\|[^\\[\\]]*)?]]");
+
+    private final FileChannel pagesChannel;
+    private final FileChannel backlinksChannel;
+    private final FileChannel searchChannel;
+    private final FileChannel entriesChannel;
+    private final FileChannel namesChannel;
+    private final MappedByteBuffer[] pages;
+    private final MappedByteBuffer[] backlinks;
+    private final MappedByteBuffer[] search;
+    private final MappedByteBuffer[] entries;
+    private final MappedByteBuffer[] names;
+    private final long searchCount;
+    private final int entryCount;
+
+    /**
+     * Opens a store made by {@code ingest}.
+     *
+     * @param store the directory of the store
+     * @throws IOException if the store cannot be read or was made by a
+     *                     different version
+     */
+    public DumpWikiBackend(Path store) throws IOException {
+        String[] files = new String[5];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Files.newInputStream(store.resolve(INDEX))))) {
+            if (in.readInt() != VERSION) {
+                throw new IOException("unknown store version");
+            }
+            for (int f = 0; f < files.length; f++) {
+                files[f] = readString(in);
+            }
+        }
+
+        pagesChannel = FileChannel.open(store.resolve(files[0]),
+            StandardOpenOption.READ);
+        backlinksChannel = FileChannel.open(store.resolve(files[1]),
+            StandardOpenOption.READ);
+        searchChannel = FileChannel.open(store.resolve(files[2]),
+            StandardOpenOption.READ);
+        entriesChannel = FileChannel.open(store.resolve(files[3]),
+            StandardOpenOption.READ);
+        namesChannel = FileChannel.open(store.resolve(files[4]),
+            StandardOpenOption.READ);
+        pages = map(pagesChannel);
+        backlinks = map(backlinksChannel);
+        search = map(searchChannel);
+        entries = map(entriesChannel);
+        names = map(namesChannel);
+        searchCount = searchChannel.size() / SEARCH_ENTRY;
+        entryCount = (int) (entriesChannel.size() / ENTRY);
+    }
+
+    /**
+     * Reads a MediaWiki XML dump, one page at a time, and writes a store of
+     * its pages that can be opened with the constructor. Any store already
+     * in {@code store} is replaced once the new one is written. Only one
+     * page, and a bounded number of titles and links while they are sorted,
+     * are held in memory at a time.
+     *
+     * @param dump  the uncompressed XML dump
+     * @param store the directory to write the store to, created if needed
+     * @return the store, opened
+     * @throws IOException if the dump cannot be read or is not valid XML,
+     *                     or the store cannot be written
+     */
+    public static DumpWikiBackend ingest(Path dump, Path store)
+        throws IOException {
+        return ingest(dump, store, DEFAULT_RUN_LENGTH);
+    }
+
+    /**
+     * Reads a MediaWiki XML dump like {@link #ingest(Path, Path)}, holding
+     * at most {@code runLength} titles or links in memory while they are
+     * sorted.
+     *
+     * @param dump      the uncompressed XML dump
+     * @param store     the directory to write the store to, created if
+     *                  needed
+     * @param runLength the number of titles or links sorted in memory at a
+     *                  time, > 0
+     * @return the store, opened
+     * @throws IOException if the dump cannot be read or is not valid XML,
+     *                     or the store cannot be written
+     */
+    public static DumpWikiBackend ingest(Path dump, Path store, int runLength)
+        throws IOException {
+        Files.createDirectories(store);
+        Path pagesFile = Files.createTempFile(store, PAGES, ".dat");
+        Path backlinksFile = Files.createTempFile(store, BACKLINKS, ".dat");
+        Path searchFile = Files.createTempFile(store, SEARCH, ".dat");
+        Path entriesFile = Files.createTempFile(store, ENTRIES, ".dat");
+        Path namesFile = Files.createTempFile(store, NAMES, ".dat");
+        Path titlesFile = Files.createTempFile(store, "titles-", ".tmp");
+        Path index = Files.createTempFile(store, "titles-", ".idx");
+
+        try (ExternalSorter pageEntries = new ExternalSorter(store,
+            Comparator.naturalOrder(), runLength);
+             ExternalSorter links = new ExternalSorter(store,
+                 Comparator.naturalOrder(), runLength);
+             ExternalSorter linkedFrom = new ExternalSorter(store,
+                 Comparator.naturalOrder(), runLength);
+             ExternalSorter words = new ExternalSorter(store,
+                 String.CASE_INSENSITIVE_ORDER, runLength);
+             ExternalSorter redirects = new ExternalSorter(store,
+                 Comparator.naturalOrder(), runLength)) {
+            readDump(dump, pagesFile, pageEntries, links);
+            writeTitles(pageEntries.sorted(), titlesFile);
+            numberSources(links.sorted(), titlesFile, linkedFrom);
+            writeEntries(titlesFile, linkedFrom.sorted(), words, redirects,
+                entriesFile, namesFile, backlinksFile);
+            numberRedirects(redirects.sorted(), titlesFile, entriesFile);
+            writeSearch(words.sorted(), searchFile);
+            writeIndex(index, dataFiles(pagesFile, backlinksFile,
+                searchFile, entriesFile, namesFile));
+
+            Files.move(index, store.resolve(INDEX),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioException) {
+            for (Path file : List.of(pagesFile, backlinksFile, searchFile,
+                entriesFile, namesFile, index)) {
+                Files.deleteIfExists(file);
+            }
+            throw ioException;
+        } finally {
+            Files.deleteIfExists(titlesFile);
+        }
+
+        deleteUnused(store, Set.of(dataFiles(pagesFile, backlinksFile,
+            searchFile, entriesFile, namesFile)));
+        return new DumpWikiBackend(store);
+    }
+
+    /**
+     * @return the number of pages in the store, including redirects
+     */
+    public int pageCount() {
+        return entryCount;
+    }
+
+    /**
+     * Searches the titles of the pages that are not redirects. A title is
+     * found if it starts with {@code query}, or if one of its words does,
+     * ignoring case, where a word is a run of letters and digits. Unlike a
+     * search of the live site, a query that starts in the middle of a word
+     * does not find the title.
+     *
+     * @param query the text to search for, not empty
+     * @param limit the maximum number of results, or -1 for no maximum
+     * @return the titles that start with the query, in order of title,
+     * followed by the titles with a word that starts with it
+     */
+    @Override
+    public List<String> search(String query, int limit) {
+        List<String> found = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        int first = lowerBound(query);
+        for (int i = first; i < entryCount
+            && (limit < 0 || found.size() < limit); i++) {
+            String title = title(i);
+            if (!title.startsWith(query)) {
+                break;
+            }
+            if (redirect(i) < 0 && seen.add(i)) {
+                found.add(title);
+            }
+        }
+
+        // the first word of the index whose rest of the title is >= query
+        long low = 0;
+        long high = searchCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(word(middle), query)
+                < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (long w = low; w < searchCount
+            && (limit < 0 || found.size() < limit); w++) {
+            ByteBuffer entry = ByteBuffer.wrap(read(search, w * SEARCH_ENTRY,
+                SEARCH_ENTRY));
+            int page = entry.getInt();
+            int start = entry.getInt();
+            String title = title(page);
+            if (!title.regionMatches(true, start, query, 0,
+                query.length())) {
+                break;
+            }
+            if (seen.add(page)) {
+                found.add(title);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String getPageText(String title) {
+        int i = find(title);
+        if (i < 0) {
+            return "";
+        }
+        long position = pageOffset(i);
+        int length = readInt(pages, position);
+        return new String(read(pages, position + Integer.BYTES, length),
+            StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        int i = find(title);
+        List<String> links = new ArrayList<>();
+        if (i < 0) {
+            return links;
+        }
+
+        long position = pageOffset(i);
+        position += Integer.BYTES + readInt(pages, position);
+        int count = readInt(pages, position);
+        position += Integer.BYTES;
+        for (int l = 0; l < count; l++) {
+            int length = readInt(pages, position);
+            links.add(new String(read(pages, position + Integer.BYTES,
+                length), StandardCharsets.UTF_8));
+            position += Integer.BYTES + length;
+        }
+        return links;
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        int i = find(title);
+        List<String> linking = new ArrayList<>();
+        if (i < 0) {
+            return linking;
+        }
+
+        long position = readLong(entries,
+            (long) i * ENTRY + BACKLINK_OFFSET_FIELD);
+        int count = readInt(backlinks, position);
+        ByteBuffer pageNumbers = ByteBuffer.wrap(read(backlinks,
+            position + Integer.BYTES, count * Integer.BYTES));
+        for (int l = 0; l < count; l++) {
+            linking.add(title(pageNumbers.getInt()));
+        }
+        return linking;
+    }
+
+    @Override
+    public boolean exists(String title) {
+        return indexOf(title) >= 0;
+    }
+
+    /**
+     * Closes the files of the store.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        pagesChannel.close();
+        backlinksChannel.close();
+        searchChannel.close();
+        entriesChannel.close();
+        namesChannel.close();
+    }
+
+    /**
+     * Finds the number of the page titled {@code title}, following its
+     * redirects, or -1 if there is none
+     */
+    private int find(String title) {
+        int i = indexOf(title);
+        for (int hop = 0; i >= 0 && redirect(i) >= 0
+            && hop < MAX_REDIRECTS; hop++) {
+            i = redirect(i);
+        }
+        return i;
+    }
+
+    /**
+     * @return the number of the page titled {@code title}, without following
+     * redirects, or -1 if there is none
+     */
+    private int indexOf(String title) {
+        int i = lowerBound(title);
+        return i < entryCount && title(i).equals(title) ? i : -1;
+    }
+
+    /**
+     * @return the number of the first page whose title is not less than
+     * {@code title}, or entryCount if there is none
+     */
+    private int lowerBound(String title) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (title(middle).compareTo(title) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the title of page {@code i}, read from the names file
+     */
+    private String title(int i) {
+        ByteBuffer entry = ByteBuffer.wrap(read(entries, (long) i * ENTRY,
+            REDIRECT_FIELD));
+        long nameOffset = entry.getLong();
+        int nameLength = entry.getInt();
+        return new String(read(names, nameOffset, nameLength),
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the page that page {@code i} redirects to, or -1
+     */
+    private int redirect(int i) {
+        return readInt(entries, (long) i * ENTRY + REDIRECT_FIELD);
+    }
+
+    private long pageOffset(int i) {
+        return readLong(entries, (long) i * ENTRY + PAGE_OFFSET_FIELD);
+    }
+
+    /**
+     * @return the rest of the title from word {@code w} of the search file
+     */
+    private String word(long w) {
+        ByteBuffer entry = ByteBuffer.wrap(read(search, w * SEARCH_ENTRY,
+            SEARCH_ENTRY));
+        return title(entry.getInt()).substring(entry.getInt());
+    }
+
+    /**
+     * Streams the dump, writing every page to {@code pagesFile}, its title,
+     * redirect and offset to {@code pageEntries}, and every link as its
+     * source, target and the offset of its source to {@code links}.
+     */
+    private static void readDump(Path dump, Path pagesFile,
+                                 ExternalSorter pageEntries,
+                                 ExternalSorter links) throws IOException {
+        try (InputStream in = new BufferedInputStream(
+            Files.newInputStream(dump));
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(pagesFile)))) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+            String title = null;
+            String redirect = "";
+            String text = "";
+            long written = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (element.equals("page")) {
+                        title = null;
+                        redirect = "";
+                        text = "";
+                    } else if (element.equals("title")) {
+                        title = reader.getElementText();
+                    } else if (element.equals("redirect")) {
+                        String target = reader.getAttributeValue(null,
+                            "title");
+                        redirect = target == null ? "" : target;
+                    } else if (element.equals("text")) {
+                        text = reader.getElementText();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                    && reader.getLocalName().equals("page")
+                    && title != null) {
+                    pageEntries.add(title, redirect, written);
+                    Set<String> pageLinks = links(text);
+                    long offset = written;
+                    written += writeString(out, text);
+                    out.writeInt(pageLinks.size());
+                    written += Integer.BYTES;
+                    for (String link : pageLinks) {
+                        written += writeString(out, link);
+                        links.add(title, link, offset);
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException xmlStreamException) {
+            throw new IOException(xmlStreamException);
+        }
+    }
+
+    /**
+     * Writes the pages in order of title to {@code titlesFile}, as
+     * [title][long pageOffset][redirect title]. A title that is in the dump
+     * twice keeps its last page.
+     */
+    private static void writeTitles(ExternalSorter.Records pageEntries,
+                                    Path titlesFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(titlesFile)))) {
+            ExternalSorter.Record entry = pageEntries.next();
+            while (entry != null) {
+                ExternalSorter.Record next = pageEntries.next();
+                if (next == null || !next.key.equals(entry.key)) {
+                    writeString(out, entry.key);
+                    out.writeLong(entry.number);
+                    writeString(out, entry.value);
+                }
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Replaces the source of every link, sorted by source, with the number
+     * of the source page, and adds the link to {@code linkedFrom} keyed by
+     * its target. Links of pages that were replaced by a later page of the
+     * same title are dropped.
+     */
+    private static void numberSources(ExternalSorter.Records links,
+                                      Path titlesFile,
+                                      ExternalSorter linkedFrom)
+        throws IOException {
+        try (TitleReader titles = new TitleReader(titlesFile)) {
+            for (ExternalSorter.Record link = links.next(); link != null;
+                 link = links.next()) {
+                while (titles.title != null
+                    && titles.title.compareTo(link.key) < 0) {
+                    titles.advance();
+                }
+                if (titles.title != null && titles.title.equals(link.key)
+                    && titles.pageOffset == link.number) {
+                    linkedFrom.add(link.value, "", titles.number);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entry, title and backlinks of every page, from the titles
+     * and the links sorted by target, with every redirect left at -1. Adds
+     * the words of every title that is not a redirect to {@code words}, and
+     * every redirect to {@code redirects}, keyed by its target, with the
+     * number of the page that redirects.
+     */
+    private static void writeEntries(Path titlesFile,
+                                     ExternalSorter.Records linkedFrom,
+                                     ExternalSorter words,
+                                     ExternalSorter redirects,
+                                     Path entriesFile, Path namesFile,
+                                     Path backlinksFile) throws IOException {
+        try (TitleReader titles = new TitleReader(titlesFile);
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     entriesFile)));
+             DataOutputStream name = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(namesFile)));
+             DataOutputStream back = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(
+                     backlinksFile)))) {
+            ExternalSorter.Record link = linkedFrom.next();
+            long nameOffset = 0;
+            long backlinkOffset = 0;
+            List<Integer> linking = new ArrayList<>();
+            for (; titles.title != null; titles.advance()) {
+                String title = titles.title;
+                while (link != null && link.key.compareTo(title) < 0) {
+                    link = linkedFrom.next();
+                }
+                linking.clear();
+                while (link != null && link.key.equals(title)) {
+                    int source = (int) link.number;
+                    if (linking.isEmpty()
+                        || linking.get(linking.size() - 1) != source) {
+                        linking.add(source);
+                    }
+                    link = linkedFrom.next();
+                }
+
+                byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+                name.write(bytes);
+                out.writeLong(nameOffset);
+                out.writeInt(bytes.length);
+                out.writeInt(-1);
+                out.writeLong(titles.pageOffset);
+                out.writeLong(backlinkOffset);
+                nameOffset += bytes.length;
+
+                back.writeInt(linking.size());
+                for (int source : linking) {
+                    back.writeInt(source);
+                }
+                backlinkOffset += Integer.BYTES
+                    + (long) Integer.BYTES * linking.size();
+
+                if (titles.redirect.isEmpty()) {
+                    for (int start : wordStarts(title)) {
+                        words.add(title.substring(start), "",
+                            ((long) titles.number << 32) | start);
+                    }
+                } else {
+                    redirects.add(titles.redirect, "", titles.number);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the redirect of every entry that redirects to a page of the
+     * store, from the redirects sorted by target.
+     */
+    private static void numberRedirects(ExternalSorter.Records redirects,
+                                        Path titlesFile, Path entriesFile)
+        throws IOException {
+        try (TitleReader titles = new TitleReader(titlesFile);
+             FileChannel out = FileChannel.open(entriesFile,
+                 StandardOpenOption.WRITE)) {
+            ByteBuffer target = ByteBuffer.allocate(Integer.BYTES);
+            for (ExternalSorter.Record redirect = redirects.next();
+                 redirect != null; redirect = redirects.next()) {
+                while (titles.title != null
+                    && titles.title.compareTo(redirect.key) < 0) {
+                    titles.advance();
+                }
+                if (titles.title != null
+                    && titles.title.equals(redirect.key)) {
+                    target.clear();
+                    target.putInt(titles.number).flip();
+                    long position = redirect.number * ENTRY + REDIRECT_FIELD;
+                    while (target.hasRemaining()) {
+                        position += out.write(target, position);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index, which names the data files of the store.
+     */
+    private static void writeIndex(Path index, String[] files)
+        throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(index)))) {
+            out.writeInt(VERSION);
+            for (String file : files) {
+                writeString(out, file);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the data files, in the order of the index
+     */
+    private static String[] dataFiles(Path... files) {
+        String[] names = new String[files.length];
+        for (int f = 0; f < files.length; f++) {
+            names[f] = files[f].getFileName().toString();
+        }
+        return names;
+    }
+
+    /**
+     * Writes the words of the titles, in order, as [int page][int start].
+     */
+    private static void writeSearch(ExternalSorter.Records words,
+                                    Path searchFile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(searchFile)))) {
+            for (ExternalSorter.Record word = words.next(); word != null;
+                 word = words.next()) {
+                out.writeInt((int) (word.number >>> 32));
+                out.writeInt((int) word.number);
+            }
+        }
+    }
+
+    /**
+     * Deletes the data files of the store that the index does not name,
+     * left by earlier ingests. Files that are still open elsewhere and
+     * cannot be deleted are left.
+     */
+    private static void deleteUnused(Path store, Set<String> used) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(store,
+            "{" + PAGES + "," + BACKLINKS + "," + SEARCH + "," + ENTRIES
+                + "," + NAMES + "}*.dat")) {
+            for (Path file : files) {
+                if (!used.contains(file.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ioException) {
+                        // still mapped by an open store
+                    }
+                }
+            }
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the index in {@code title} of every word, a letter or digit
+     * that does not follow one
+     */
+    private static List<Integer> wordStarts(String title) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < title.length(); i++) {
+            if (Character.isLetterOrDigit(title.charAt(i)) && (i == 0
+                || !Character.isLetterOrDigit(title.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Finds the titles of the pages that wiki text links to, in the order
+     * they first appear, written as the wiki writes titles: with spaces
+     * instead of underscores and a capital first letter.
+     */
+    private static Set<String> links(String text) {
+        Set<String> links = new LinkedHashSet<>();
+        Matcher matcher = LINK.matcher(text);
+        while (matcher.find()) {
+            String link = matcher.group(1).replace('_', ' ').trim();
+            if (!link.isEmpty()) {
+                links.add(link.substring(0, 1).toUpperCase(Locale.ROOT)
+                    + link.substring(1));
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Writes a string preceded by its length.
+     *
+     * @return the number of bytes written
+     */
+    private static int writeString(DataOutputStream out, String string)
+        throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return Integer.BYTES + bytes.length;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps a whole file, in segments of SEGMENT_SIZE bytes.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel)
+        throws IOException {
+        long size = channel.size();
+        int count = (int) Math.max(1,
+            (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            long start = s * SEGMENT_SIZE;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments;
+    }
+
+    /**
+     * Copies {@code length} bytes from a mapped file, starting at
+     * {@code position}, even if they lie in two segments.
+     */
+    private static byte[] read(MappedByteBuffer[] segments, long position,
+                               int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long at = position + copied;
+            ByteBuffer segment = segments[(int) (at / SEGMENT_SIZE)]
+                .duplicate();
+            segment.position((int) (at % SEGMENT_SIZE));
+            int chunk = Math.min(length - copied, segment.remaining());
+            if (chunk <= 0) {
+                throw new UncheckedIOException(
+                    new IOException("store is truncated"));
+            }
+            segment.get(bytes, copied, chunk);
+            copied += chunk;
+        }
+        return bytes;
+    }
+
+    private static int readInt(MappedByteBuffer[] segments, long position) {
+        return ByteBuffer.wrap(read(segments, position, Integer.BYTES))
+            .getInt();
+    }
+
+    private static long readLong(MappedByteBuffer[] segments,
+                                 long position) {
+        return ByteBuffer.wrap(read(segments, position, Long.BYTES))
+            .getLong();
+    }
+
+    /**
+     * Reads the titles written by writeTitles one at a time, with their
+     * number in order of title.
+     */
+    private static final class TitleReader implements AutoCloseable {
+        private final DataInputStream in;
+        private String title;
+        private long pageOffset;
+        private String redirect;
+        private int number = -1;
+
+        private TitleReader(Path titlesFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(titlesFile)));
+            advance();
+        }
+
+        /**
+         * Reads the next title, or sets title to null if there are no more
+         */
+        private void advance() throws IOException {
+            try {
+                title = readString(in);
+                pageOffset = in.readLong();
+                redirect = readString(in);
+                number++;
+            } catch (EOFException eofException) {
+                title = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package cpen221.mp3.wikibackend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+class ExternalSorter implements AutoCloseable {
+    /* Representation Invariant:
+     * runLength > 0 and buffer.size() < runLength between calls
+     * every file in runs holds runLength records in order
+     */
+
+    /* Abstraction Function:
+     * Represents the records added so far, which may be more than fit in
+     * memory. The latest of them are in "buffer", and the others in the
+     * files "runs" in "directory", each sorted by "order". Reading the
+     * records sorts the buffer and merges it with the runs, reading one
+     * record of each run at a time.
+     */
+
+    /* Thread Safety Arguments:
+     * Not thread safe, a sorter is used by one thread.
+     */
+
+    private final Path directory;
+    private final Comparator<Record> order;
+    private final int runLength;
+    private final List<Record> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<DataInputStream> readers = new ArrayList<>();
+
+    /**
+     * Creates a sorter without records.
+     *
+     * @param directory the directory to write runs to
+     * @param keyOrder  the order of the keys of the records, records with
+     *                  the same key being ordered by number
+     * @param runLength the number of records held in memory, > 0
+     */
+    ExternalSorter(Path directory, Comparator<String> keyOrder,
+                   int runLength) {
+        if (runLength <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = directory;
+        this.order = Comparator.comparing((Record record) -> record.key,
+            keyOrder).thenComparingLong(record -> record.number);
+        this.runLength = runLength;
+    }
+
+    /**
+     * Adds a record, writing a run if the buffer is full.
+     */
+    void add(String key, String value, long number) throws IOException {
+        buffer.add(new Record(key, value, number));
+        if (buffer.size() == runLength) {
+            buffer.sort(order);
+            Path run = Files.createTempFile(directory, "run-", ".tmp");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (Record record : buffer) {
+                    writeString(out, record.key);
+                    writeString(out, record.value);
+                    out.writeLong(record.number);
+                }
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads the records added, in order. No record may be added after.
+     *
+     * @return the records, read one at a time
+     */
+    Records sorted() throws IOException {
+        buffer.sort(order);
+        PriorityQueue<Source> heads = new PriorityQueue<>(
+            Comparator.comparing(source -> source.head, order));
+        Source memory = new Source(null);
+        if (memory.advance()) {
+            heads.add(memory);
+        }
+        for (Path run : runs) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(run)));
+            readers.add(in);
+            Source source = new Source(in);
+            if (source.advance()) {
+                heads.add(source);
+            }
+        }
+
+        return () -> {
+            Source source = heads.poll();
+            if (source == null) {
+                return null;
+            }
+            Record record = source.head;
+            if (source.advance()) {
+                heads.add(source);
+            }
+            return record;
+        };
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream reader : readers) {
+            reader.close();
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string)
+        throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A key, with a value and a number.
+     */
+    static final class Record {
+        final String key;
+        final String value;
+        final long number;
+
+        Record(String key, String value, long number) {
+            this.key = key;
+            this.value = value;
+            this.number = number;
+        }
+    }
+
+    /**
+     * Sorted records, read one at a time.
+     */
+    interface Records {
+        /**
+         * @return the next record, or null if there are no more
+         */
+        Record next() throws IOException;
+    }
+
+    /**
+     * A run, or the buffer if in is null, with its next record in head.
+     */
+    private final class Source {
+        private final DataInputStream in;
+        private int next;
+        private Record head;
+
+        private Source(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return false if there are no more records
+         */
+        private boolean advance() throws IOException {
+            if (in == null) {
+                head = next < buffer.size() ? buffer.get(next++) : null;
+                return head != null;
+            }
+            try {
+                head = new Record(readString(in), readString(in),
+                    in.readLong());
+                return true;
+            } catch (EOFException eofException) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cpen221.mp3.wikibackend;
+
+import org.fastily.jwiki.core.MQuery;
+import org.fastily.jwiki.core.Wiki;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JWikiBackend implements WikiBackend {
+    /* Representation Invariant:
+     * wiki is not null
+     */
+
+    /* Abstraction Function:
+     * Represents a live wiki, reached through the MediaWiki API of the
+     * jwiki connection "wiki". The batch methods ask for many pages in one
+     * API request.
+     */
+
+    /* Thread Safety Arguments:
+     * wiki is final, and jwiki sends every call as its own HTTP request
+     * without changing the state of the connection.
+     */
+
+    private final Wiki wiki;
+
+    /**
+     * Connects to the English Wikipedia.
+     */
+    public JWikiBackend() {
+        this("en.wikipedia.org");
+    }
+
+    /**
+     * Connects to a MediaWiki site.
+     *
+     * @param domain the domain of the site, such as en.wikipedia.org
+     */
+    public JWikiBackend(String domain) {
+        this.wiki = new Wiki.Builder().withDomain(domain).build();
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        return wiki.search(query, limit);
+    }
+
+    @Override
+    public String getPageText(String title) {
+        return wiki.getPageText(title);
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        return wiki.getLinksOnPage(title);
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        return wiki.whatLinksHere(title);
+    }
+
+    @Override
+    public boolean exists(String title) {
+        return wiki.exists(title);
+    }
+
+    @Override
+    public Map<String, String> getPageTexts(Collection<String> titles) {
+        Map<String, String> fetched = MQuery.getPageText(wiki, titles);
+        Map<String, String> texts = new LinkedHashMap<>();
+        for (String title : titles) {
+            String text = fetched.get(title);
+            texts.put(title, text == null ? "" : text);
+        }
+        return texts;
+    }
+
+    @Override
+    public Map<String, List<String>> getLinksOnPages(
+        Collection<String> titles) {
+        Map<String, ArrayList<String>> fetched =
+            MQuery.getLinksOnPage(wiki, titles);
+        Map<String, List<String>> links = new LinkedHashMap<>();
+        for (String title : titles) {
+            List<String> pageLinks = fetched.get(title);
+            links.put(title, pageLinks == null ? new ArrayList<>() : pageLinks);
+        }
+        return links;
+    }
+}
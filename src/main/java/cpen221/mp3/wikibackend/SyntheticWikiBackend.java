@@ -0,0 +1,282 @@
+package cpen221.mp3.wikibackend;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class SyntheticWikiBackend implements WikiBackend {
+    /* Representation Invariant:
+     * titles.length == links.length == backlinks.length == pageCount
+     * indexOf maps titles[i] to i for every i, and nothing else
+     * every element of links[i] and backlinks[i] is in [0, pageCount)
+     * j is in links[i] exactly as often as i is in backlinks[j]
+     * latencyNanos >= 0 and textLength >= 0
+     */
+
+    /* Abstraction Function:
+     * Represents a generated wiki of pageCount pages that lives in memory,
+     * so that the mediator can be measured without the live site. Page i is
+     * titled titles[i], a word from WORDS followed by i, and links to the
+     * pages links[i]: always page i + 1 (wrapping around, so every page can
+     * reach every other), and a random choice of other pages. backlinks[i]
+     * are the pages that link to page i.
+     *
+     * The text of a page is not stored. It is generated whenever it is
+     * asked for, from "seed" and the number of the page, so it is the same
+     * every time: about textLength characters of words, followed by a
+     * wiki link to each page it links to.
+     *
+     * A search returns the titles that contain the query, ignoring case,
+     * in the order of the pages.
+     *
+     * Every call waits for latencyNanos before it returns, like a request
+     * to the live site would, and counts one request in "requests". The
+     * batch methods wait and count once for every BATCH_SIZE pages they get,
+     * or part of it, since that is how many the live site answers at once.
+     */
+
+    /* Thread Safety Arguments:
+     * The arrays and indexOf are filled in the constructor and never
+     * changed after, so they can be read by any thread. requests is an
+     * AtomicLong, and every call otherwise only uses local variables.
+     */
+
+    private static final String[] WORDS = {"Alpha", "Bravo", "Charlie",
+        "Delta", "Echo", "Foxtrot", "Golf", "Hotel", "India", "Juliett",
+        "Kilo", "Lima", "Mike", "November", "Oscar", "Papa", "Quebec",
+        "Romeo", "Sierra", "Tango", "Uniform", "Victor", "Whiskey", "Xray",
+        "Yankee", "Zulu"};
+
+    private final long seed;
+    private final int textLength;
+    private final long latencyNanos;
+    private final String[] titles;
+    private final Map<String, Integer> indexOf;
+    private final int[][] links;
+    private final int[][] backlinks;
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Generates a wiki with pages of about 2,000 characters.
+     *
+     * @param pageCount    the number of pages, > 1
+     * @param linksPerPage the number of links on each page, >= 1
+     * @param latency      how long every request takes
+     */
+    public SyntheticWikiBackend(int pageCount, int linksPerPage,
+                                Duration latency) {
+        this(pageCount, linksPerPage, 2_000, latency, 221L);
+    }
+
+    /**
+     * Generates a wiki.
+     *
+     * @param pageCount    the number of pages, > 1
+     * @param linksPerPage the number of links on each page, >= 1
+     * @param textLength   the number of characters of words in the text of
+     *                     each page, >= 0
+     * @param latency      how long every request takes
+     * @param seed         the wiki generated is the same for the same seed
+     */
+    public SyntheticWikiBackend(int pageCount, int linksPerPage,
+                                int textLength, Duration latency,
+                                long seed) {
+        if (pageCount < 2 || linksPerPage < 1 || textLength < 0
+            || latency.isNegative()) {
+            throw new IllegalArgumentException();
+        }
+        this.seed = seed;
+        this.textLength = textLength;
+        this.latencyNanos = latency.toNanos();
+        this.titles = new String[pageCount];
+        this.indexOf = new HashMap<>(pageCount * 2);
+        this.links = new int[pageCount][];
+        this.backlinks = new int[pageCount][];
+
+        for (int i = 0; i < pageCount; i++) {
+            titles[i] = WORDS[i % WORDS.length] + " " + i;
+            indexOf.put(titles[i], i);
+        }
+
+        int[] backlinkCounts = new int[pageCount];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < pageCount; i++) {
+            links[i] = new int[linksPerPage];
+            links[i][0] = (i + 1) % pageCount;
+            for (int l = 1; l < linksPerPage; l++) {
+                links[i][l] = random.nextInt(pageCount);
+            }
+            for (int target : links[i]) {
+                backlinkCounts[target]++;
+            }
+        }
+
+        for (int i = 0; i < pageCount; i++) {
+            backlinks[i] = new int[backlinkCounts[i]];
+            backlinkCounts[i] = 0;
+        }
+        for (int i = 0; i < pageCount; i++) {
+            for (int target : links[i]) {
+                backlinks[target][backlinkCounts[target]++] = i;
+            }
+        }
+    }
+
+    /**
+     * @param i the number of a page, 0 <= i < the number of pages
+     * @return the title of page {@code i}
+     */
+    public String title(int i) {
+        return titles[i];
+    }
+
+    /**
+     * @return the number of pages in the wiki
+     */
+    public int pageCount() {
+        return titles.length;
+    }
+
+    /**
+     * @return the number of requests made to this wiki so far, where a
+     * batch request counts once
+     */
+    public long requestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        request();
+        String needle = query.toLowerCase(Locale.ROOT);
+        List<String> found = new ArrayList<>();
+        for (int i = 0; i < titles.length
+            && (limit < 0 || found.size() < limit); i++) {
+            if (titles[i].toLowerCase(Locale.ROOT).contains(needle)) {
+                found.add(titles[i]);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public String getPageText(String title) {
+        request();
+        return text(title);
+    }
+
+    @Override
+    public List<String> getLinksOnPage(String title) {
+        request();
+        return linksOn(title);
+    }
+
+    @Override
+    public List<String> whatLinksHere(String title) {
+        request();
+        Integer i = indexOf.get(title);
+        return i == null ? new ArrayList<>()
+            : titlesOf(Arrays.stream(backlinks[i]).distinct().toArray());
+    }
+
+    @Override
+    public boolean exists(String title) {
+        request();
+        return indexOf.containsKey(title);
+    }
+
+    @Override
+    public Map<String, String> getPageTexts(Collection<String> titles) {
+        request(batches(titles.size()));
+        Map<String, String> texts = new LinkedHashMap<>();
+        for (String title : titles) {
+            texts.put(title, text(title));
+        }
+        return texts;
+    }
+
+    @Override
+    public Map<String, List<String>> getLinksOnPages(
+        Collection<String> titles) {
+        request(batches(titles.size()));
+        Map<String, List<String>> pageLinks = new LinkedHashMap<>();
+        for (String title : titles) {
+            pageLinks.put(title, linksOn(title));
+        }
+        return pageLinks;
+    }
+
+    /**
+     * Counts a request and waits for as long as it takes.
+     */
+    private void request() {
+        request(1);
+    }
+
+    /**
+     * Counts {@code count} requests and waits for as long as they take, one
+     * after the other.
+     */
+    private void request(int count) {
+        requests.addAndGet(count);
+        long deadline = System.nanoTime() + count * latencyNanos;
+        for (long left = count * latencyNanos; left > 0;
+             left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /**
+     * @return the number of requests it takes the live site to answer a
+     * batch of {@code size} pages
+     */
+    private static int batches(int size) {
+        return (size + BATCH_SIZE - 1) / BATCH_SIZE;
+    }
+
+    private String text(String title) {
+        Integer i = indexOf.get(title);
+        if (i == null) {
+            return "";
+        }
+
+        SplittableRandom random = new SplittableRandom(seed ^ (i * 31L + 7));
+        StringBuilder text = new StringBuilder(
+            textLength + 32 * links[i].length);
+        text.append("'''").append(title).append("''' ");
+        while (text.length() < textLength) {
+            text.append(WORDS[random.nextInt(WORDS.length)]
+                .toLowerCase(Locale.ROOT)).append(' ');
+        }
+        for (int target : links[i]) {
+            text.append("[[").append(titles[target]).append("]] ");
+        }
+        return text.toString();
+    }
+
+    private List<String> linksOn(String title) {
+        Integer i = indexOf.get(title);
+        if (i == null) {
+            return new ArrayList<>();
+        }
+        int[] distinct = Arrays.stream(links[i]).distinct().toArray();
+        return titlesOf(distinct);
+    }
+
+    private List<String> titlesOf(int[] pages) {
+        List<String> found = new ArrayList<>(pages.length);
+        for (int page : pages) {
+            found.add(titles[page]);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,96 @@
+package cpen221.mp3.wikibackend;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wiki that WikiMediator and the shortest path search get pages, search
+ * results and links from. Implementations must be thread safe.
+ */
+public interface WikiBackend {
+
+    /**
+     * the number of titles that Wikipedia answers in one request, so a batch
+     * of n titles takes ceil(n / BATCH_SIZE) requests to the live site
+     */
+    int BATCH_SIZE = 50;
+
+    /**
+     * Searches the wiki.
+     *
+     * @param query the text to search for, not empty
+     * @param limit the maximum number of results, or -1 for no maximum
+     * @return the titles of the pages found, best match first
+     */
+    List<String> search(String query, int limit);
+
+    /**
+     * Gets the text of a page.
+     *
+     * @param title the title of the page
+     * @return the text of the page, or an empty String if there is no such
+     * page
+     */
+    String getPageText(String title);
+
+    /**
+     * Gets the titles of the pages that a page links to.
+     *
+     * @param title the title of the page
+     * @return the titles linked to, or an empty list if there is no such
+     * page
+     */
+    List<String> getLinksOnPage(String title);
+
+    /**
+     * Gets the titles of the pages that link to a page.
+     *
+     * @param title the title of the page
+     * @return the titles of the pages linking to it, or an empty list if
+     * there is no such page
+     */
+    List<String> whatLinksHere(String title);
+
+    /**
+     * @param title the title of a page
+     * @return true if the wiki has a page with this title
+     */
+    boolean exists(String title);
+
+    /**
+     * Gets the text of several pages. By default the pages are fetched one
+     * at a time, implementations that can fetch them in fewer requests
+     * should override this.
+     *
+     * @param titles the titles of the pages
+     * @return the text of each page by title, in the order of
+     * {@code titles}, with an empty String for titles that have no page
+     */
+    default Map<String, String> getPageTexts(Collection<String> titles) {
+        Map<String, String> texts = new LinkedHashMap<>();
+        for (String title : titles) {
+            texts.put(title, getPageText(title));
+        }
+        return texts;
+    }
+
+    /**
+     * Gets the links on several pages. By default the pages are fetched one
+     * at a time, implementations that can fetch them in fewer requests
+     * should override this.
+     *
+     * @param titles the titles of the pages
+     * @return the titles linked to from each page, by title, in the order
+     * of {@code titles}
+     */
+    default Map<String, List<String>> getLinksOnPages(
+        Collection<String> titles) {
+        Map<String, List<String>> links = new LinkedHashMap<>();
+        for (String title : titles) {
+            links.put(title, getLinksOnPage(title));
+        }
+        return links;
+    }
+}
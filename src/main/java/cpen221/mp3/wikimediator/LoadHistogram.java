@@ -0,0 +1,327 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoadHistogram {
+    /* Representation Invariant:
+     * horizon > 0 and seconds.length == horizon
+     * if newestSecond == NONE, every count is 0 and minuteCount == 0
+     * 0 <= minuteCount <= minutes.length
+     * every count is >= 0, and total is the sum of every count
+     * every minute with a count greater than 0 is before
+     * newestSecond - horizon + 1, unless requests arrived out of order
+     */
+
+    /* Abstraction Function:
+     * Represents the number of requests made in every second, for the last
+     * horizon seconds, and in every minute before that. The count of second
+     * s, for newestSecond - horizon < s <= newestSecond, is
+     * seconds[floorMod(s, horizon)], and the count of minute firstMinute + i,
+     * for 0 <= i < minuteCount, is minutes[i]. Times are in seconds or
+     * minutes from January 1970 at midnight UTC.
+     *
+     * When a request arrives in a second past newestSecond, the seconds
+     * that fall out of the horizon are added to the count of their minute,
+     * so the histogram takes room for horizon seconds and one count per
+     * minute of history, however many requests were made.
+     *
+     * The peak load of a window of w seconds is found by sliding a window
+     * of w seconds over the seconds, which gives the largest count of
+     * requests in w seconds, to the second. The whole history is also
+     * counted by minute, the seconds being added to their minutes, and a
+     * window of floor(w / 60) minutes is slid over it, since those minutes
+     * fit in w seconds. A window shorter than a minute takes the largest
+     * count of a minute divided by ceil(60 / w), since that many windows of
+     * w seconds cover the minute and one of them has at least that many
+     * requests. Either way the peak is never more than the true peak.
+     */
+
+    /* Thread Safety Arguments:
+     * Every method that reads or writes the counts is synchronized.
+     */
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int horizon;
+    private final int[] seconds;
+    private long newestSecond = NONE;
+    private int[] minutes = new int[16];
+    private long firstMinute;
+    private int minuteCount;
+    private long total;
+
+    /**
+     * Creates a histogram without any requests.
+     *
+     * @param horizonSeconds the number of seconds counted one by one before
+     *                       they are counted by minute, > 0
+     */
+    public LoadHistogram(int horizonSeconds) {
+        if (horizonSeconds <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.horizon = horizonSeconds;
+        this.seconds = new int[horizonSeconds];
+    }
+
+    /**
+     * Creates a histogram from a snapshot taken by {@link #snapshot()},
+     * which may have a different horizon.
+     *
+     * @param horizonSeconds the number of seconds counted one by one before
+     *                       they are counted by minute, > 0
+     * @param snapshot       the counts to start from
+     */
+    public LoadHistogram(int horizonSeconds, Snapshot snapshot) {
+        this(horizonSeconds);
+        if (snapshot.minutes != null) {
+            for (int i = 0; i < snapshot.minutes.length; i++) {
+                addToMinute(snapshot.firstMinute + i, snapshot.minutes[i]);
+                total += snapshot.minutes[i];
+            }
+        }
+        if (snapshot.seconds != null) {
+            for (int i = 0; i < snapshot.seconds.length; i++) {
+                addToSecond(snapshot.firstSecond + i, snapshot.seconds[i]);
+            }
+        }
+    }
+
+    /**
+     * Counts one request.
+     *
+     * @param timeMillis the time of the request, in milliseconds from
+     *                   January 1970 at midnight UTC
+     */
+    public synchronized void add(long timeMillis) {
+        addToSecond(Math.floorDiv(timeMillis, 1000), 1);
+    }
+
+    /**
+     * Finds the largest number of requests in any window of time. Takes
+     * time proportional to the horizon and the number of minutes before it.
+     *
+     * @param windowSeconds the length of the window, in seconds
+     * @return the largest number of requests in {@code windowSeconds}
+     * seconds, to the second within the horizon, and estimated from the
+     * count of every minute before it, never more than the true number
+     */
+    public synchronized int peak(int windowSeconds) {
+        if (windowSeconds <= 0) {
+            return 0;
+        }
+
+        int peak = 0;
+        long sum = 0;
+        long oldest = newestSecond - horizon + 1;
+        for (int i = 0; newestSecond != NONE && i < horizon; i++) {
+            sum += seconds[Math.floorMod(oldest + i, horizon)];
+            if (i >= windowSeconds) {
+                sum -= seconds[Math.floorMod(oldest + i - windowSeconds,
+                    horizon)];
+            }
+            peak = (int) Math.max(peak, sum);
+        }
+
+        return (int) Math.max(peak, minutePeak(windowSeconds));
+    }
+
+    /**
+     * Lists the requests of the last seconds counted, to the second.
+     *
+     * @param windowSeconds the number of seconds, up to the newest second
+     *                      with requests, >= 0
+     * @return a new list with the start, in milliseconds, of each of those
+     * seconds, once for every request in it, oldest first
+     */
+    public synchronized List<Long> newestTimes(int windowSeconds) {
+        List<Long> times = new ArrayList<>();
+        if (newestSecond == NONE) {
+            return times;
+        }
+        long first = newestSecond - Math.min(windowSeconds, horizon) + 1;
+        for (long s = first; s <= newestSecond; s++) {
+            for (int c = seconds[Math.floorMod(s, horizon)]; c > 0; c--) {
+                times.add(s * 1000);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * @return the number of requests counted
+     */
+    public synchronized long total() {
+        return total;
+    }
+
+    /**
+     * @return the counts of the histogram, to be saved and passed to
+     * {@link #LoadHistogram(int, Snapshot)}
+     */
+    public synchronized Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.firstMinute = firstMinute;
+        snapshot.minutes = Arrays.copyOf(minutes, minuteCount);
+        snapshot.seconds = new int[0];
+        if (newestSecond == NONE) {
+            return snapshot;
+        }
+
+        // only the seconds from the first to the last with requests are kept
+        long first = newestSecond - horizon + 1;
+        long last = newestSecond;
+        while (first <= last && seconds[Math.floorMod(first, horizon)] == 0) {
+            first++;
+        }
+        while (last >= first && seconds[Math.floorMod(last, horizon)] == 0) {
+            last--;
+        }
+        snapshot.firstSecond = first;
+        snapshot.seconds = new int[(int) (last - first + 1)];
+        for (int i = 0; i < snapshot.seconds.length; i++) {
+            snapshot.seconds[i] = seconds[Math.floorMod(first + i, horizon)];
+        }
+        return snapshot;
+    }
+
+    /**
+     * Finds the peak load of a window from the count of every minute, see
+     * the abstraction function
+     */
+    private long minutePeak(int windowSeconds) {
+        // the minutes with requests in order, the seconds added to theirs
+        int length = minuteCount + horizon / 60 + 2;
+        long[] times = new long[length];
+        long[] counts = new long[length];
+        int n = 0;
+        for (int i = 0; i < minuteCount; i++) {
+            if (minutes[i] > 0) {
+                times[n] = firstMinute + i;
+                counts[n++] = minutes[i];
+            }
+        }
+        for (long s = newestSecond - horizon + 1;
+             newestSecond != NONE && s <= newestSecond; s++) {
+            int count = seconds[Math.floorMod(s, horizon)];
+            if (count == 0) {
+                continue;
+            }
+            long minute = Math.floorDiv(s, 60);
+            int at = n - 1;
+            while (at >= 0 && times[at] > minute) {
+                at--;
+            }
+            if (at >= 0 && times[at] == minute) {
+                counts[at] += count;
+            } else {
+                // only out of order requests are counted before a minute
+                System.arraycopy(times, at + 1, times, at + 2, n - at - 1);
+                System.arraycopy(counts, at + 1, counts, at + 2, n - at - 1);
+                times[at + 1] = minute;
+                counts[at + 1] = count;
+                n++;
+            }
+        }
+
+        int windowMinutes = Math.max(1, windowSeconds / 60);
+        long sum = 0;
+        long peak = 0;
+        for (int end = 0, start = 0; end < n; end++) {
+            sum += counts[end];
+            while (times[start] <= times[end] - windowMinutes) {
+                sum -= counts[start++];
+            }
+            peak = Math.max(peak, sum);
+        }
+        if (windowSeconds < 60) {
+            long windows = (60 + windowSeconds - 1) / windowSeconds;
+            peak = (peak + windows - 1) / windows;
+        }
+        return peak;
+    }
+
+    /**
+     * Counts {@code count} requests in {@code second}, moving the seconds
+     * that fall out of the horizon to their minutes
+     */
+    private void addToSecond(long second, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (newestSecond == NONE) {
+            newestSecond = second;
+        }
+        if (second > newestSecond) {
+            long last = Math.min(newestSecond, second - horizon);
+            for (long s = newestSecond - horizon + 1; s <= last; s++) {
+                retire(s);
+            }
+            newestSecond = second;
+        }
+
+        total += count;
+        if (second <= newestSecond - horizon) {
+            // too old to count by the second
+            addToMinute(Math.floorDiv(second, 60), count);
+        } else {
+            seconds[Math.floorMod(second, horizon)] += count;
+        }
+    }
+
+    /**
+     * Moves the count of {@code second}, which is leaving the horizon, to
+     * its minute
+     */
+    private void retire(long second) {
+        int slot = Math.floorMod(second, horizon);
+        if (seconds[slot] > 0) {
+            addToMinute(Math.floorDiv(second, 60), seconds[slot]);
+            seconds[slot] = 0;
+        }
+    }
+
+    private void addToMinute(long minute, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (minuteCount == 0) {
+            firstMinute = minute;
+        }
+        if (minute < firstMinute) {
+            int shift = (int) (firstMinute - minute);
+            ensureMinutes(minuteCount + shift);
+            System.arraycopy(minutes, 0, minutes, shift, minuteCount);
+            Arrays.fill(minutes, 0, shift, 0);
+            firstMinute = minute;
+            minuteCount += shift;
+        }
+        int i = (int) (minute - firstMinute);
+        if (i >= minuteCount) {
+            ensureMinutes(i + 1);
+            minuteCount = i + 1;
+        }
+        minutes[i] += count;
+    }
+
+    private void ensureMinutes(int length) {
+        if (length > minutes.length) {
+            minutes = Arrays.copyOf(minutes,
+                Math.max(length, minutes.length * 2));
+        }
+    }
+
+    /**
+     * The counts of a histogram, in a form that can be saved as JSON: the
+     * count of every second from firstSecond on, and of every minute from
+     * firstMinute on.
+     */
+    public static final class Snapshot {
+        private long firstSecond;
+        private int[] seconds;
+        private long firstMinute;
+        private int[] minutes;
+    }
+}
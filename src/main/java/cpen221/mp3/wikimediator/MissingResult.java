@@ -0,0 +1,65 @@
+package cpen221.mp3.wikimediator;
+
+import cpen221.mp3.fsftbuffer.Bufferable;
+
+public class MissingResult implements Bufferable {
+    /* Representation Invariant:
+     * id starts with PAGE or SEARCH
+     */
+
+    /* Abstraction Function:
+     * Represents a request that Wikipedia had nothing for: a page title
+     * with no text, if id is PAGE followed by the title, or a search query
+     * with no results, if id is SEARCH followed by the query. The prefixes
+     * keep a title and a query that are the same string apart.
+     */
+
+    private static final String PAGE = "page:";
+    private static final String SEARCH = "search:";
+
+    private final String id;
+
+    private MissingResult(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @param pageTitle title of a page that does not exist
+     * @return the missing result for {@code pageTitle}
+     */
+    public static MissingResult page(String pageTitle) {
+        return new MissingResult(pageId(pageTitle));
+    }
+
+    /**
+     * @param query a search query that has no results
+     * @return the missing result for {@code query}
+     */
+    public static MissingResult search(String query) {
+        return new MissingResult(searchId(query));
+    }
+
+    /**
+     * @param pageTitle title of a page
+     * @return the id the missing result of {@code pageTitle} would have
+     */
+    public static String pageId(String pageTitle) {
+        return PAGE + pageTitle;
+    }
+
+    /**
+     * @param query a search query
+     * @return the id the missing result of {@code query} would have
+     */
+    public static String searchId(String query) {
+        return SEARCH + query;
+    }
+
+    /**
+     * Get the id of a missing result
+     * @return the kind of request followed by the title or query
+     */
+    public String id() {
+        return id;
+    }
+}
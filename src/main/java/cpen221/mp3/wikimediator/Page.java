@@ -2,24 +2,50 @@ package cpen221.mp3.wikimediator;
 
 import cpen221.mp3.fsftbuffer.Bufferable;
 
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+
 public class Page implements Bufferable {
     // TODO: Write RI and AF
     /*
     * Representation Invariant:
     * pageText is not empty
     * id is not empty
+    * exactly one of pageText and handle is not null, and if handle is not
+    * null then so is store
      */
 
     /*
     * Abstraction function:
     * Represents a wikipedia page with id of its page title and its contents
-    * as a String
+    * as a String. The contents are either held in pageText, or kept off the
+    * heap in store and identified by handle, in which case they are only
+    * read back when getText is called. The off-heap memory is released by
+    * release, when the page leaves the cache, or otherwise once the page is
+    * no longer reachable. fetchedAt is when the text was fetched from
+    * Wikipedia, as read from the ticker of the mediator, or UNKNOWN.
+     */
+
+    /**
+     * the fetchedAt of a page whose text was not fetched by a mediator
      */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * releases the off-heap text of pages that are no longer reachable
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
 
     private String id;
 
     private String pageText;
 
+    private final PageStore store;
+
+    private final PageStore.Handle handle;
+
+    private final long fetchedAt;
+
     /**
      * Create a page with contents {@code pageText} to represent a
      * Wikipedia page
@@ -29,14 +55,90 @@ public class Page implements Bufferable {
     public Page(String pageTitle, String pageText) {
         this.id = pageTitle;
         this.pageText = pageText;
+        this.store = null;
+        this.handle = null;
+        this.fetchedAt = UNKNOWN;
     }
 
     /**
-     * Get the text contained in a page
-     * @return contents of a page
+     * Create a page with contents {@code pageText} to represent a
+     * Wikipedia page, keeping the contents off the heap in {@code store}
+     * @param pageTitle title of wikipedia page
+     * @param pageText contents of the page, not null
+     * @param store the store to keep the contents in
+     */
+    public Page(String pageTitle, String pageText, PageStore store) {
+        this(pageTitle, pageText, store, UNKNOWN);
+    }
+
+    /**
+     * Create a page with contents {@code pageText} to represent a
+     * Wikipedia page, keeping the contents off the heap in {@code store}
+     * @param pageTitle title of wikipedia page
+     * @param pageText contents of the page, not null
+     * @param store the store to keep the contents in
+     * @param fetchedAt when the contents were fetched, in nanoseconds as read
+     *                  from a ticker, or UNKNOWN
+     */
+    public Page(String pageTitle, String pageText, PageStore store,
+                long fetchedAt) {
+        this.id = pageTitle;
+        this.pageText = null;
+        this.store = store;
+        this.handle = store.store(pageText);
+        this.fetchedAt = fetchedAt;
+        CLEANER.register(this, new Release(store, handle));
+    }
+
+    /**
+     * Get the text contained in a page, decoding it from the off-heap store
+     * if that is where it is kept
+     * @return contents of a page, or null if they were kept off the heap
+     * and have been released
      */
     public String getText() {
-        return pageText;
+        if (handle == null) {
+            return pageText;
+        }
+        try {
+            return store.load(handle);
+        } finally {
+            // the text must not be released while it is being read
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Frees the off-heap text of a page, once it is no longer being read.
+     * The text of the page cannot be read after. Does nothing if the text
+     * is on the heap or was already released.
+     */
+    public void release() {
+        if (handle != null) {
+            store.release(handle);
+        }
+    }
+
+    /**
+     * Get the number of bytes the text of a page takes up in memory, which is
+     * two bytes for every UTF-16 character, or the number of bytes it takes
+     * up in the off-heap store
+     * @return the size of the contents of a page in bytes
+     */
+    public int byteSize() {
+        if (handle != null) {
+            return handle.length();
+        }
+        return pageText == null ? 0 : 2 * pageText.length();
+    }
+
+    /**
+     * Get when the text of a page was fetched
+     * @return the time, in nanoseconds as read from the ticker of the
+     * mediator that fetched it, or UNKNOWN
+     */
+    public long fetchedAt() {
+        return fetchedAt;
     }
 
     /**
@@ -46,4 +148,24 @@ public class Page implements Bufferable {
     public String id() {
         return id;
     }
+
+    /**
+     * Frees the off-heap text of a page once the page is unreachable. It
+     * must not refer to the page itself, or the page would never become
+     * unreachable.
+     */
+    private static final class Release implements Runnable {
+        private final PageStore store;
+        private final PageStore.Handle handle;
+
+        private Release(PageStore store, PageStore.Handle handle) {
+            this.store = store;
+            this.handle = handle;
+        }
+
+        @Override
+        public void run() {
+            store.release(handle);
+        }
+    }
 }
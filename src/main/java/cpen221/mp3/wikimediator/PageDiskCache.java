@@ -0,0 +1,558 @@
+package cpen221.mp3.wikimediator;
+
+import cpen221.mp3.fsftbuffer.Ticker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class PageDiskCache implements AutoCloseable {
+    /* Representation Invariant:
+     * every entry in index lies within [0, fileSize) and entries do not
+     * overlap
+     * liveBytes is the sum of the lengths of the entries in index, and
+     * liveBytes <= fileSize <= maximumBytes
+     * the entries of index are in the order in which they were written
+     * pendingBytes is the sum of the lengths of the texts in pending, and
+     * pendingBytes <= maximumBytes / 2 unless pending has one page
+     * if pending is not empty and the tier is open, writing is true
+     */
+
+    /* Abstraction Function:
+     * Represents a second, on-disk cache tier for the text of pages that
+     * did not fit in memory. Pages are appended to the segment file at
+     * "path" as records of the form
+     *
+     *     [int length][long storedAt][int titleLength][title][text]
+     *
+     * where length counts the bytes after the length field itself, title and
+     * text are UTF-8 and storedAt is the time, in milliseconds since January
+     * 1970 at midnight UTC, when the text was fetched. "index" maps the
+     * title of every page in the tier to the Entry of its latest record.
+     *
+     * Time is read from "ticker", in milliseconds, and the storedAt of an
+     * Entry is a reading of it. Since a ticker may only be meaningful while
+     * the server runs, storedAt is written to the file as the wall clock
+     * time, by adding clockOffset, the difference between the wall clock
+     * and the ticker when the tier was opened.
+     * Records are read back with positional reads of the channel, so the
+     * file is never mapped and can always be replaced.
+     *
+     * A page is stale, and no longer returned, once more than "staleness"
+     * milliseconds have passed since it was fetched. Records that have been replaced
+     * or have gone stale stay in the file until it would grow past
+     * maximumBytes, at which point it is compacted: stale pages and then the
+     * oldest pages are dropped until at most half of maximumBytes is in use,
+     * and the remaining records are copied to a new file that replaces the
+     * old one.
+     *
+     * When the file is opened again, the index is rebuilt by reading every
+     * record, so the tier also survives restarts.
+     *
+     * Pages given to putLater wait in "pending", in the order they were
+     * given, until they are written by "writer", a thread of its own, so
+     * that whoever spills a page, and any compaction that causes, does not
+     * wait for the disk. A pending page can already be read. When more than
+     * half of maximumBytes is pending, the oldest pending pages are dropped,
+     * since a compaction would drop them anyway.
+     */
+
+    /* Thread Safety Arguments:
+     * Every method that reads or writes the index, the file or pending is
+     * synchronized. The writer takes the lock for one page at a time, so
+     * reads are only held up by the page being written.
+     */
+
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES
+        + Integer.BYTES;
+
+    private final Path path;
+    private final long staleness;
+    private final long maximumBytes;
+    private final Ticker ticker;
+    private final long clockOffset;
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>();
+    private final LinkedHashMap<String, StoredPage> pending =
+        new LinkedHashMap<>();
+    private final ExecutorService writer =
+        Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "page-disk-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private FileChannel channel;
+    private long fileSize;
+    private long liveBytes;
+    private long pendingBytes;
+    private boolean writing;
+
+    /**
+     * Opens the disk tier stored at {@code path}, creating the file if it
+     * does not exist, and reads the index of the pages already in it.
+     *
+     * @param path              the segment file
+     * @param stalenessInterval maximum time, in seconds, since a page was
+     *                          fetched that it can be stored in this tier
+     * @param maximumBytes      maximum size of the segment file in bytes,
+     *                          0 < maximumBytes <= Integer.MAX_VALUE
+     * @param ticker            the clock that staleness is measured with
+     * @throws IOException if the file cannot be opened
+     */
+    public PageDiskCache(Path path, int stalenessInterval, long maximumBytes,
+                         Ticker ticker) throws IOException {
+        if (maximumBytes <= 0 || maximumBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException();
+        }
+        this.path = path;
+        this.staleness = TimeUnit.SECONDS.toMillis(stalenessInterval);
+        this.maximumBytes = maximumBytes;
+        this.ticker = ticker;
+        this.clockOffset = System.currentTimeMillis() - now();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = open(path);
+        this.fileSize = channel.size();
+        readIndex();
+    }
+
+    /**
+     * Opens the disk tier stored at {@code path}, measuring staleness with
+     * the wall clock.
+     *
+     * @param path              the segment file
+     * @param stalenessInterval maximum time, in seconds, since a page was
+     *                          fetched that it can be stored in this tier
+     * @param maximumBytes      maximum size of the segment file in bytes,
+     *                          0 < maximumBytes <= Integer.MAX_VALUE
+     * @throws IOException if the file cannot be opened
+     */
+    public PageDiskCache(Path path, int stalenessInterval, long maximumBytes)
+        throws IOException {
+        this(path, stalenessInterval, maximumBytes, Ticker.wallClockTicker());
+    }
+
+    /**
+     * Opens the disk tier at local/pageCache.dat.
+     *
+     * @param stalenessInterval maximum time, in seconds, since a page was
+     *                          fetched that it can be stored in this tier
+     * @param maximumBytes      maximum size of the segment file in bytes
+     * @param ticker            the clock that staleness is measured with
+     * @throws IOException if the file cannot be opened
+     */
+    public PageDiskCache(int stalenessInterval, long maximumBytes,
+                         Ticker ticker) throws IOException {
+        this(Paths.get("local/pageCache.dat"), stalenessInterval,
+            maximumBytes, ticker);
+    }
+
+    /**
+     * Gets the text of a page from disk.
+     *
+     * @param title the title of the page
+     * @return the text of the page, or null if it is not in this tier, has
+     * gone stale, or the tier has been closed
+     * @throws IOException if the file cannot be read
+     */
+    public String get(String title) throws IOException {
+        StoredPage page = load(title);
+        return page == null ? null : page.text();
+    }
+
+    /**
+     * Gets the text of a page from disk, with the time it was fetched.
+     *
+     * @param title the title of the page
+     * @return the page, or null if it is not in this tier, has gone stale,
+     * or the tier has been closed
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized StoredPage load(String title) throws IOException {
+        StoredPage waiting = pending.get(title);
+        if (channel != null && waiting != null
+            && waiting.fetchedAt + staleness >= now()) {
+            return waiting;
+        }
+        Entry entry = index.get(title);
+        if (channel == null || entry == null) {
+            return null;
+        }
+        if (isStale(entry, now())) {
+            index.remove(title);
+            liveBytes -= entry.length;
+            return null;
+        }
+
+        ByteBuffer text = read(channel, entry.offset + entry.textOffset,
+            entry.length - entry.textOffset);
+        return new StoredPage(StandardCharsets.UTF_8.decode(text).toString(),
+            entry.storedAt);
+    }
+
+    /**
+     * Writes the text of a page, fetched now, to disk. See
+     * {@link #put(String, String, long)}.
+     *
+     * @param title the title of the page
+     * @param text  the text of the page
+     * @throws IOException if the file cannot be written
+     */
+    public void put(String title, String text) throws IOException {
+        put(title, text, now());
+    }
+
+    /**
+     * Writes the text of a page to disk, unless the page is already in this
+     * tier and has not gone stale, is stale itself, or is larger than the
+     * whole tier. Compacts the file first if it would otherwise grow too
+     * large.
+     *
+     * @param title     the title of the page
+     * @param text      the text of the page
+     * @param fetchedAt when the text was fetched, read from the ticker in
+     *                  milliseconds
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void put(String title, String text, long fetchedAt)
+        throws IOException {
+        long now = now();
+        Entry existing = index.get(title);
+        if (channel == null || existing != null && !isStale(existing, now)
+            || fetchedAt + staleness < now) {
+            return;
+        }
+
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        long length = (long) HEADER_BYTES + titleBytes.length
+            + textBytes.length;
+        if (length > maximumBytes / 2) {
+            return;
+        }
+
+        if (fileSize + length > maximumBytes) {
+            compact(now, length);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate((int) length);
+        record.putInt((int) length - Integer.BYTES);
+        record.putLong(fetchedAt + clockOffset);
+        record.putInt(titleBytes.length);
+        record.put(titleBytes);
+        record.put(textBytes);
+        record.flip();
+        write(channel, record, fileSize);
+
+        Entry replaced = index.remove(title);
+        if (replaced != null) {
+            liveBytes -= replaced.length;
+        }
+        index.put(title, new Entry(fileSize, (int) length, fetchedAt,
+            HEADER_BYTES + titleBytes.length));
+        liveBytes += length;
+        fileSize += length;
+    }
+
+    /**
+     * Writes the text of a page to disk like
+     * {@link #put(String, String, long)}, but in the background. The page
+     * can be read as soon as this returns.
+     *
+     * @param title     the title of the page
+     * @param text      the text of the page
+     * @param fetchedAt when the text was fetched, read from the ticker in
+     *                  milliseconds
+     */
+    public synchronized void putLater(String title, String text,
+                                      long fetchedAt) {
+        if (channel == null) {
+            return;
+        }
+        StoredPage replaced = pending.remove(title);
+        if (replaced != null) {
+            pendingBytes -= replaced.text.length();
+        }
+        pending.put(title, new StoredPage(text, fetchedAt));
+        pendingBytes += text.length();
+
+        Iterator<StoredPage> oldest = pending.values().iterator();
+        while (pendingBytes > maximumBytes / 2 && pending.size() > 1) {
+            pendingBytes -= oldest.next().text.length();
+            oldest.remove();
+        }
+
+        if (!writing) {
+            writing = true;
+            writer.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Writes every page given to putLater that has not been written yet.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writeOldestPending();
+        }
+    }
+
+    /**
+     * @return the number of pages in this tier, including ones that have
+     * gone stale but have not been dropped yet
+     */
+    public synchronized int size() {
+        Set<String> titles = new HashSet<>(index.keySet());
+        titles.addAll(pending.keySet());
+        return titles.size();
+    }
+
+    /**
+     * @return the size of the segment file in bytes
+     */
+    public synchronized long fileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Writes the pending pages, and closes the segment file. Afterwards
+     * this tier is empty and ignores writes.
+     *
+     * @throws IOException if the file cannot be written or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                flush();
+            } finally {
+                writer.shutdown();
+                pending.clear();
+                pendingBytes = 0;
+            }
+            channel.close();
+            channel = null;
+            index.clear();
+            liveBytes = 0;
+        }
+    }
+
+    /**
+     * Writes the pending pages one at a time, on the writer thread, until
+     * there are none left
+     */
+    private void writePending() {
+        while (true) {
+            synchronized (this) {
+                if (pending.isEmpty() || channel == null) {
+                    writing = false;
+                    return;
+                }
+                try {
+                    writeOldestPending();
+                } catch (IOException ioException) {
+                    ioException.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void writeOldestPending() throws IOException {
+        Iterator<Map.Entry<String, StoredPage>> oldest =
+            pending.entrySet().iterator();
+        Map.Entry<String, StoredPage> page = oldest.next();
+        oldest.remove();
+        pendingBytes -= page.getValue().text.length();
+        put(page.getKey(), page.getValue().text, page.getValue().fetchedAt);
+    }
+
+    private boolean isStale(Entry entry, long now) {
+        return entry.storedAt + staleness < now;
+    }
+
+    /**
+     * @return the time from the ticker, in milliseconds
+     */
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+    }
+
+    /**
+     * Drops stale pages, and then the oldest pages, until the live pages and
+     * {@code needed} more bytes take up at most half of maximumBytes, then
+     * copies the live records to a new segment file.
+     */
+    private void compact(long now, long needed) throws IOException {
+        Iterator<Entry> entries = index.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (isStale(entry, now) || liveBytes + needed > maximumBytes / 2) {
+                entries.remove();
+                liveBytes -= entry.length;
+            }
+        }
+
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        long position = 0;
+        try (FileChannel target = FileChannel.open(compacted,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                long copied = 0;
+                while (copied < entry.length) {
+                    copied += channel.transferTo(entry.offset + copied,
+                        entry.length - copied, target.position(position
+                            + copied));
+                }
+                e.setValue(new Entry(position, entry.length, entry.storedAt,
+                    entry.textOffset));
+                position += entry.length;
+            }
+            target.force(false);
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        fileSize = position;
+    }
+
+    /**
+     * Rebuilds the index by reading every record in the file. A record that
+     * was only partly written, for example because the server stopped while
+     * writing it, is cut off along with everything after it.
+     */
+    private void readIndex() throws IOException {
+        long now = now();
+        long position = 0;
+
+        while (position + HEADER_BYTES <= fileSize) {
+            ByteBuffer header = read(channel, position, HEADER_BYTES);
+            long length = Integer.BYTES + (long) header.getInt();
+            long storedAt = header.getLong() - clockOffset;
+            int titleLength = header.getInt();
+            if (titleLength < 0 || length < HEADER_BYTES + (long) titleLength
+                || position + length > fileSize) {
+                break;
+            }
+
+            ByteBuffer titleBytes = read(channel, position + HEADER_BYTES,
+                titleLength);
+            String title = StandardCharsets.UTF_8.decode(titleBytes).toString();
+
+            Entry entry = new Entry(position, (int) length, storedAt,
+                HEADER_BYTES + titleLength);
+            Entry replaced = index.remove(title);
+            if (replaced != null) {
+                liveBytes -= replaced.length;
+            }
+            if (!isStale(entry, now)) {
+                index.put(title, entry);
+                liveBytes += length;
+            }
+            position += length;
+        }
+
+        if (position < fileSize) {
+            channel.truncate(position);
+            fileSize = position;
+        }
+    }
+
+    /**
+     * Reads {@code length} bytes of the segment file, starting at
+     * {@code position}.
+     *
+     * @return a buffer of the bytes, ready to be read
+     */
+    private static ByteBuffer read(FileChannel channel, long position,
+                                   int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position + bytes.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+        return bytes.flip();
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bytes,
+                              long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    /**
+     * Where the latest record of a page is in the segment file.
+     */
+    private static final class Entry {
+        private final long offset;
+        private final int length;
+        private final long storedAt;
+        private final int textOffset;
+
+        private Entry(long offset, int length, long storedAt,
+                      int textOffset) {
+            this.offset = offset;
+            this.length = length;
+            this.storedAt = storedAt;
+            this.textOffset = textOffset;
+        }
+    }
+
+    /**
+     * The text of a page in the disk tier, and when it was fetched.
+     */
+    public static final class StoredPage {
+        private final String text;
+        private final long fetchedAt;
+
+        private StoredPage(String text, long fetchedAt) {
+            this.text = text;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * @return the text of the page
+         */
+        public String text() {
+            return text;
+        }
+
+        /**
+         * @return when the text was fetched, read from the ticker of the
+         * tier in milliseconds
+         */
+        public long fetchedAt() {
+            return fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package cpen221.mp3.wikimediator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class PageStore {
+    /* Representation Invariant:
+     * every extent in holes is in the free map of its slab, under its
+     * offset, and every extent in a free map is in holes
+     * the extents of a slab do not overlap or touch, and lie within its
+     * buffer
+     * a slab of SLAB_SIZE bytes whose whole buffer is one free extent is
+     * in emptySlabs and not in holes, and emptySlabs.size() <=
+     * MAX_FREE_SLABS
+     * every slab in emptySlabs has no extents in its free map
+     * usedBytes is the sum of the allocated lengths of all handles that
+     * have been stored and not yet freed, and reservedBytes is the sum of
+     * the capacities of the slabs in use and in emptySlabs
+     */
+
+    /* Abstraction Function:
+     * Represents an off-heap store for the text of pages. Text is encoded as
+     * UTF-8 and, if compress is true and it makes the text smaller, Deflate
+     * compressed, and the bytes are copied into "slabs", which are direct
+     * ByteBuffers of SLAB_SIZE bytes that live outside of the Java heap. A
+     * text is identified by a Handle, which records its slab, offset and
+     * length, and takes up its length rounded up to ALIGNMENT bytes.
+     *
+     * The free space of every slab is kept as extents, in the free map of
+     * the slab by offset, so that an extent that is freed merges with the
+     * free extents next to it, and in "holes" by length, so that a text
+     * goes in the smallest extent it fits in. Freed space is reused, so a
+     * text that is still in use holds on to its own bytes and not to the
+     * rest of its slab. A slab that becomes entirely free is kept in
+     * emptySlabs, up to MAX_FREE_SLABS of them, and the others are dropped.
+     * A text larger than SLAB_SIZE gets a slab of its own, which is dropped
+     * when it is freed.
+     *
+     * A handle is freed when it has been released and is not being loaded:
+     * "pins" counts the release, which has not happened yet, and every load
+     * in progress. A load that starts after the handle was released finds
+     * no text.
+     */
+
+    /* Thread Safety Arguments:
+     * Space is only ever allocated or freed while holding the lock of the
+     * store, so the extents, slabs and counts are only changed by one
+     * thread at a time.
+     * load is not synchronized: it pins its handle before reading, and the
+     * space of a pinned handle is never freed, so it is never written while
+     * it is being read. The bytes of a text are never written again after
+     * store returns (store publishes the handle after writing them).
+     * The pins of a handle are only changed atomically, and never raised
+     * again from 0, so exactly one thread takes them to 0 and frees the
+     * handle.
+     */
+
+    /**
+     * size of a slab of off-heap memory, 4 MB
+     */
+    public static final int SLAB_SIZE = 1 << 22;
+
+    /**
+     * number of bytes every text is rounded up to a multiple of, so that
+     * freed extents fit other texts more often
+     */
+    private static final int ALIGNMENT = 16;
+
+    /**
+     * number of empty slabs kept for reuse, others are left to the
+     * garbage collector
+     */
+    private static final int MAX_FREE_SLABS = 4;
+
+    private final boolean compress;
+    private final NavigableSet<Extent> holes = new TreeSet<>(
+        Comparator.comparingInt((Extent extent) -> extent.length)
+            .thenComparingInt(extent -> extent.slab == null ? -1
+                : extent.slab.number)
+            .thenComparingInt(extent -> extent.offset));
+    private final ArrayDeque<Slab> emptySlabs = new ArrayDeque<>();
+    private int slabCount;
+    private long usedBytes;
+    private long reservedBytes;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param compress if true, text is Deflate compressed when that makes it
+     *                 smaller
+     */
+    public PageStore(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Copies {@code text} into off-heap memory.
+     *
+     * @param text the text to store, not null
+     * @return the handle to load the text with
+     */
+    public Handle store(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = utf8;
+        boolean deflated = false;
+
+        if (compress && utf8.length > 0) {
+            byte[] compressed = deflate(utf8);
+            if (compressed.length < utf8.length) {
+                bytes = compressed;
+                deflated = true;
+            }
+        }
+
+        int allocated = (bytes.length + ALIGNMENT - 1) & -ALIGNMENT;
+        synchronized (this) {
+            Extent extent = allocate(allocated);
+            ByteBuffer view = extent.slab.buffer.duplicate();
+            view.position(extent.offset);
+            view.put(bytes);
+            usedBytes += allocated;
+            return new Handle(extent.slab, extent.offset, bytes.length,
+                allocated, utf8.length, deflated);
+        }
+    }
+
+    /**
+     * Reads back the text of a handle.
+     *
+     * @param handle a handle returned by {@code store}
+     * @return the text that was stored, or null if the handle was released
+     */
+    public String load(Handle handle) {
+        int pins;
+        do {
+            pins = handle.pins.get();
+            if (pins == 0) {
+                return null;
+            }
+        } while (!handle.pins.compareAndSet(pins, pins + 1));
+
+        byte[] bytes = new byte[handle.length];
+        try {
+            ByteBuffer view = handle.slab.buffer.duplicate();
+            view.position(handle.offset);
+            view.get(bytes);
+        } finally {
+            unpin(handle);
+        }
+
+        if (handle.deflated) {
+            bytes = inflate(bytes, handle.utf8Length);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Frees the memory of a handle, as soon as it is not being loaded. The
+     * handle cannot be loaded after. Releasing a handle again does nothing.
+     *
+     * @param handle a handle returned by {@code store}
+     */
+    public void release(Handle handle) {
+        if (handle.released.compareAndSet(false, true)) {
+            unpin(handle);
+        }
+    }
+
+    /**
+     * @return the number of off-heap bytes taken up by the texts that have
+     * not been released
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of off-heap bytes held by the store, in slabs that
+     * are in use or kept for reuse
+     */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    private void unpin(Handle handle) {
+        if (handle.pins.decrementAndGet() == 0) {
+            free(handle);
+        }
+    }
+
+    /**
+     * Takes {@code length} bytes from the smallest free extent they fit in,
+     * from a new slab if there is none
+     */
+    private Extent allocate(int length) {
+        if (length > SLAB_SIZE) {
+            reservedBytes += length;
+            return new Extent(new Slab(length, slabCount++), 0, length);
+        }
+
+        Extent hole = holes.ceiling(new Extent(null, 0, length));
+        if (hole == null) {
+            Slab slab = emptySlabs.poll();
+            if (slab == null) {
+                slab = new Slab(SLAB_SIZE, slabCount++);
+                reservedBytes += SLAB_SIZE;
+            }
+            hole = new Extent(slab, 0, SLAB_SIZE);
+        } else {
+            holes.remove(hole);
+            hole.slab.free.remove(hole.offset);
+        }
+
+        if (hole.length > length) {
+            addHole(new Extent(hole.slab, hole.offset + length,
+                hole.length - length));
+        }
+        return new Extent(hole.slab, hole.offset, length);
+    }
+
+    /**
+     * Returns the space of a handle to its slab, merging it with the free
+     * extents next to it
+     */
+    private synchronized void free(Handle handle) {
+        usedBytes -= handle.allocated;
+        Slab slab = handle.slab;
+        if (slab.buffer.capacity() > SLAB_SIZE) {
+            reservedBytes -= slab.buffer.capacity();
+            return;
+        }
+
+        int offset = handle.offset;
+        int length = handle.allocated;
+        Map.Entry<Integer, Extent> before = slab.free.lowerEntry(offset);
+        if (before != null
+            && before.getKey() + before.getValue().length == offset) {
+            removeHole(before.getValue());
+            offset = before.getKey();
+            length += before.getValue().length;
+        }
+        Extent after = slab.free.get(handle.offset + handle.allocated);
+        if (after != null) {
+            removeHole(after);
+            length += after.length;
+        }
+
+        if (length < SLAB_SIZE) {
+            addHole(new Extent(slab, offset, length));
+        } else if (emptySlabs.size() < MAX_FREE_SLABS) {
+            emptySlabs.push(slab);
+        } else {
+            reservedBytes -= SLAB_SIZE;
+        }
+    }
+
+    private void addHole(Extent extent) {
+        holes.add(extent);
+        extent.slab.free.put(extent.offset, extent);
+    }
+
+    private void removeHole(Extent extent) {
+        holes.remove(extent);
+        extent.slab.free.remove(extent.offset);
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] output = new byte[input.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length,
+                    output.length - length);
+            }
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int utf8Length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[utf8Length];
+            int length = 0;
+            while (length < utf8Length && !inflater.finished()) {
+                length += inflater.inflate(output, length,
+                    utf8Length - length);
+            }
+            return output;
+        } catch (DataFormatException dfe) {
+            throw new IllegalStateException("corrupt page text", dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A direct buffer that texts are copied into, with its free extents by
+     * offset.
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private final int number;
+        private final TreeMap<Integer, Extent> free = new TreeMap<>();
+
+        private Slab(int size, int number) {
+            this.buffer = ByteBuffer.allocateDirect(size);
+            this.number = number;
+        }
+    }
+
+    /**
+     * A run of bytes in a slab. An extent without a slab is only used to
+     * look up holes by length, and comes before the holes of that length.
+     */
+    private static final class Extent {
+        private final Slab slab;
+        private final int offset;
+        private final int length;
+
+        private Extent(Slab slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Identifies a text in a PageStore. The text itself is not on the heap.
+     */
+    public static final class Handle {
+        private final Slab slab;
+        private final int offset;
+        private final int length;
+        private final int allocated;
+        private final int utf8Length;
+        private final boolean deflated;
+        private final AtomicInteger pins = new AtomicInteger(1);
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Handle(Slab slab, int offset, int length, int allocated,
+                       int utf8Length, boolean deflated) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.allocated = allocated;
+            this.utf8Length = utf8Length;
+            this.deflated = deflated;
+        }
+
+        /**
+         * @return the number of off-heap bytes the text takes up
+         */
+        public int length() {
+            return allocated;
+        }
+    }
+}
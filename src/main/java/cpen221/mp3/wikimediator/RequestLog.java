@@ -0,0 +1,180 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequestLog {
+    /* Representation Invariant:
+     * trackedWindow > 0
+     * chunks.size() == ceil(size / CHUNK_SIZE), every chunk has CHUNK_SIZE
+     * elements, and the first size times in the chunks are in
+     * non-decreasing order
+     * 0 <= trailing <= size, and if size > 0, get(trailing) is the first time
+     * greater than get(size - 1) - trackedWindow
+     * trackedPeak is at least the largest number of times in any window of
+     * trackedWindow milliseconds
+     */
+
+    /* Abstraction Function:
+     * Represents the times of requests, in milliseconds, from the oldest to
+     * the newest. The times are kept as primitive longs in chunks of
+     * CHUNK_SIZE, so that the log grows without copying the times already
+     * in it, and time i is chunks.get(i / CHUNK_SIZE)[i % CHUNK_SIZE].
+     *
+     * The largest number of requests in any window of trackedWindow
+     * milliseconds is kept up to date as times are added, in trackedPeak:
+     * the window that ends at the newest time starts at time "trailing",
+     * which only moves forward, so adding a time takes O(1) time. Other
+     * windows are swept in O(size) time.
+     *
+     * Old times can be retired a chunk at a time. trackedPeak still counts
+     * the times that were retired.
+     */
+
+    /* Thread Safety Arguments:
+     * Every method that reads or writes the log is synchronized.
+     */
+
+    private static final int CHUNK_BITS = 13;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final long trackedWindow;
+    private final List<long[]> chunks = new ArrayList<>();
+    private int size;
+    private int trailing;
+    private int trackedPeak;
+
+    /**
+     * Creates an empty log.
+     *
+     * @param trackedWindowMillis the length, in milliseconds, of the window
+     *                            whose peak load is kept up to date, > 0
+     */
+    public RequestLog(long trackedWindowMillis) {
+        if (trackedWindowMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.trackedWindow = trackedWindowMillis;
+    }
+
+    /**
+     * Adds the time of a request. Takes O(1) time if it is not before the
+     * newest time in the log.
+     *
+     * @param timeMillis the time of the request, in milliseconds
+     */
+    public synchronized void add(long timeMillis) {
+        if (size == chunks.size() * CHUNK_SIZE) {
+            chunks.add(new long[CHUNK_SIZE]);
+        }
+        int i = size++;
+        // a clock that went back puts the time in order among the newest
+        while (i > 0 && get(i - 1) > timeMillis) {
+            set(i, get(i - 1));
+            i--;
+        }
+        set(i, timeMillis);
+
+        if (i == size - 1) {
+            while (get(trailing) <= timeMillis - trackedWindow) {
+                trailing++;
+            }
+            trackedPeak = Math.max(trackedPeak, size - trailing);
+        } else {
+            trackedPeak = Math.max(trackedPeak, sweep(trackedWindow));
+            trailing = firstAfter(get(size - 1) - trackedWindow);
+        }
+    }
+
+    /**
+     * Removes the oldest times, a chunk of them at a time, keeping every
+     * time from {@code timeMillis} on. The peak load of the tracked window
+     * still counts the times removed.
+     *
+     * @param timeMillis the oldest time that must be kept, in milliseconds
+     */
+    public synchronized void retireBefore(long timeMillis) {
+        while (size > CHUNK_SIZE && chunks.get(0)[CHUNK_SIZE - 1] < timeMillis
+            && trailing >= CHUNK_SIZE) {
+            chunks.remove(0);
+            size -= CHUNK_SIZE;
+            trailing -= CHUNK_SIZE;
+        }
+    }
+
+    /**
+     * Finds the largest number of requests in any window of time.
+     *
+     * @param windowMillis the length of the window, in milliseconds
+     * @return the largest number of times t, ..., t + windowMillis - 1 in
+     * the log, for any t, counting retired times for the tracked window.
+     * Takes O(1) time for the tracked window, and O(size) time for any
+     * other.
+     */
+    public synchronized int peak(long windowMillis) {
+        return windowMillis == trackedWindow ? trackedPeak
+            : sweep(windowMillis);
+    }
+
+    /**
+     * @return the number of times in the log
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return a new list of the times in the log, oldest first
+     */
+    public synchronized List<Long> times() {
+        List<Long> times = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            times.add(get(i));
+        }
+        return times;
+    }
+
+    /**
+     * Counts the times in the window that starts at each time, moving the
+     * end of the window forward as its start moves forward
+     */
+    private int sweep(long windowMillis) {
+        int peak = 0;
+        int end = 0;
+        for (int start = 0; start < size; start++) {
+            long limit = get(start) + windowMillis;
+            end = Math.max(end, start);
+            while (end < size && get(end) < limit) {
+                end++;
+            }
+            peak = Math.max(peak, end - start);
+        }
+        return peak;
+    }
+
+    /**
+     * @return the index of the first time greater than {@code timeMillis},
+     * or size if there is none
+     */
+    private int firstAfter(long timeMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (get(middle) <= timeMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long get(int i) {
+        return chunks.get(i >>> CHUNK_BITS)[i & (CHUNK_SIZE - 1)];
+    }
+
+    private void set(int i, long timeMillis) {
+        chunks.get(i >>> CHUNK_BITS)[i & (CHUNK_SIZE - 1)] = timeMillis;
+    }
+}
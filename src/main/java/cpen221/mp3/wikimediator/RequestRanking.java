@@ -0,0 +1,318 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class RequestRanking {
+    /* Representation Invariant:
+     * the buckets from lowest to highest, following next, have strictly
+     * increasing counts > 0, and following prev visits them in reverse
+     * no bucket has an empty set of keys
+     * buckets maps every key to the bucket whose keys contain it, and every
+     * key of every bucket is in buckets
+     * capacity >= 0, and if capacity > 0, buckets.size() <= capacity
+     * every key of errors is in buckets, with 0 < errors.get(key) < its count
+     * total >= the sum of the counts
+     */
+
+    /* Abstraction Function:
+     * Represents how many times each query or page title has been
+     * requested, ranked from most to least requested. Keys with the same
+     * count share a Bucket, and the buckets form a doubly linked list
+     * ordered by count, from "lowest" to "highest". "buckets" maps each key
+     * to its bucket, so the count of a key is buckets.get(key).count.
+     *
+     * Counting a request moves its key to the bucket one count higher,
+     * which is next to its current bucket, so it takes O(log k) time for a
+     * bucket of k keys, whatever the number of keys. The top keys are read
+     * by walking down from the highest bucket, so reading the top limit
+     * keys takes O(limit) time. Within a bucket, keys are kept in a sorted
+     * set, and ranked in reverse lexicographical order.
+     *
+     * If capacity is 0, every key is kept and its count is exact. Otherwise
+     * at most capacity keys are kept, following the Space-Saving algorithm:
+     * when a new key is requested while the ranking is full, a key with the
+     * lowest count, min, is dropped, and the new key takes its place with a
+     * count of min + 1, of which errors.get(key) = min may not have been
+     * requests of the new key. A count is then at most errors.get(key)
+     * higher than the true number of requests, and a key that is not kept
+     * was requested at most min times, so every key requested more than
+     * total / capacity times is kept. "total" is the number of requests
+     * counted, including those of dropped keys.
+     */
+
+    /* Thread Safety Arguments:
+     * Every method that reads or writes the buckets is synchronized.
+     */
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final Map<String, Integer> errors = new HashMap<>();
+    private final int capacity;
+    private long total;
+    private Bucket lowest;
+    private Bucket highest;
+
+    /**
+     * Creates a ranking in which no key has been requested, which keeps
+     * every key and counts exactly.
+     */
+    public RequestRanking() {
+        this(0);
+    }
+
+    /**
+     * Creates a ranking in which no key has been requested, which keeps at
+     * most {@code capacity} keys. Counts may then be too high, by at most
+     * {@link #error(String)}, which is never more than the number of
+     * requests counted divided by {@code capacity}.
+     *
+     * @param capacity the maximum number of keys kept, or 0 to keep every
+     *                 key, >= 0
+     */
+    public RequestRanking(int capacity) {
+        this(new HashMap<>(), new HashMap<>(), capacity);
+    }
+
+    /**
+     * Creates a ranking of keys that have already been requested, which
+     * keeps every key.
+     *
+     * @param counts the number of requests of each key, each > 0
+     */
+    public RequestRanking(Map<String, Integer> counts) {
+        this(counts, new HashMap<>(), 0);
+    }
+
+    /**
+     * Creates a ranking of keys that have already been requested. If there
+     * are more than {@code capacity} keys, only the highest ranked are kept.
+     *
+     * @param counts   the number of requests of each key, each > 0
+     * @param errors   how much higher than the true number of requests the
+     *                 counts of some of the keys may be, see
+     *                 {@link #errors()}
+     * @param capacity the maximum number of keys kept, or 0 to keep every
+     *                 key, >= 0
+     */
+    public RequestRanking(Map<String, Integer> counts,
+                          Map<String, Integer> errors, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+
+        TreeMap<Integer, TreeSet<String>> byCount = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            byCount.computeIfAbsent(entry.getValue(), c -> new TreeSet<>())
+                .add(entry.getKey());
+            total += entry.getValue();
+        }
+        int size = counts.size();
+        while (capacity > 0 && size > capacity) {
+            TreeSet<String> keys = byCount.firstEntry().getValue();
+            keys.pollFirst();
+            if (keys.isEmpty()) {
+                byCount.pollFirstEntry();
+            }
+            size--;
+        }
+
+        for (Map.Entry<Integer, TreeSet<String>> entry : byCount.entrySet()) {
+            Bucket bucket = new Bucket(entry.getKey(), highest);
+            bucket.keys = entry.getValue();
+            for (String key : bucket.keys) {
+                buckets.put(key, bucket);
+                Integer error = errors.get(key);
+                if (error != null && error > 0 && error < bucket.count) {
+                    this.errors.put(key, error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts one request of {@code key}.
+     *
+     * @param key the query or page title requested
+     */
+    public synchronized void increment(String key) {
+        total++;
+        Bucket from = buckets.get(key);
+        Bucket to;
+        if (from == null && capacity > 0 && buckets.size() >= capacity) {
+            // the new key replaces a key with the lowest count
+            Bucket replaced = lowest;
+            String dropped = replaced.keys.pollFirst();
+            buckets.remove(dropped);
+            errors.remove(dropped);
+            to = above(replaced);
+            if (replaced.keys.isEmpty()) {
+                unlink(replaced);
+            }
+            errors.put(key, replaced.count);
+        } else if (from == null) {
+            to = lowest != null && lowest.count == 1 ? lowest
+                : new Bucket(1, null);
+        } else {
+            to = above(from);
+            from.keys.remove(key);
+            if (from.keys.isEmpty()) {
+                unlink(from);
+            }
+        }
+        to.keys.add(key);
+        buckets.put(key, to);
+    }
+
+    /**
+     * Gets the most requested keys.
+     *
+     * @param limit the maximum number of keys to return
+     * @return at most {@code limit} keys in order of non-increasing number
+     * of requests, ties in reverse lexicographical order
+     */
+    public synchronized List<String> top(int limit) {
+        List<String> top = new ArrayList<>(Math.max(0,
+            Math.min(limit, buckets.size())));
+        for (Bucket bucket = highest; bucket != null && top.size() < limit;
+             bucket = bucket.prev) {
+            Iterator<String> keys = bucket.keys.descendingIterator();
+            while (keys.hasNext() && top.size() < limit) {
+                top.add(keys.next());
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @param key a query or page title
+     * @return the number of times {@code key} has been requested
+     */
+    public synchronized int count(String key) {
+        Bucket bucket = buckets.get(key);
+        return bucket == null ? 0 : bucket.count;
+    }
+
+    /**
+     * @param key a query or page title
+     * @return how much higher than the true number of requests of
+     * {@code key} its count may be, or, if {@code key} is not kept, the
+     * most times it may have been requested
+     */
+    public synchronized int error(String key) {
+        if (!buckets.containsKey(key)) {
+            return maximumError();
+        }
+        return errors.getOrDefault(key, 0);
+    }
+
+    /**
+     * @return the most that any count may be too high by, and the most times
+     * a key that is not kept may have been requested. Always 0 if every key
+     * is kept, and at most {@code total() / capacity} otherwise.
+     */
+    public synchronized int maximumError() {
+        return capacity > 0 && buckets.size() >= capacity ? lowest.count : 0;
+    }
+
+    /**
+     * @return the number of requests counted, including those of keys that
+     * are no longer kept
+     */
+    public synchronized long total() {
+        return total;
+    }
+
+    /**
+     * @return the maximum number of keys kept, or 0 if every key is kept
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of different keys that are kept, which is the
+     * number of different keys requested if every key is kept
+     */
+    public synchronized int size() {
+        return buckets.size();
+    }
+
+    /**
+     * @return a new map of every key that is kept to its count
+     */
+    public synchronized Map<String, Integer> counts() {
+        Map<String, Integer> counts = new HashMap<>(buckets.size() * 2);
+        for (Bucket bucket = lowest; bucket != null; bucket = bucket.next) {
+            for (String key : bucket.keys) {
+                counts.put(key, bucket.count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return a new map of every key whose count may be too high to how much
+     * too high it may be
+     */
+    public synchronized Map<String, Integer> errors() {
+        return new HashMap<>(errors);
+    }
+
+    /**
+     * Finds the bucket one count higher than {@code bucket}, adding it if
+     * there is none
+     */
+    private Bucket above(Bucket bucket) {
+        return bucket.next != null && bucket.next.count == bucket.count + 1
+            ? bucket.next : new Bucket(bucket.count + 1, bucket);
+    }
+
+    private void unlink(Bucket bucket) {
+        if (bucket.prev == null) {
+            lowest = bucket.next;
+        } else {
+            bucket.prev.next = bucket.next;
+        }
+        if (bucket.next == null) {
+            highest = bucket.prev;
+        } else {
+            bucket.next.prev = bucket.prev;
+        }
+    }
+
+    /**
+     * The keys that have been requested the same number of times.
+     */
+    private final class Bucket {
+        private final int count;
+        private TreeSet<String> keys = new TreeSet<>();
+        private Bucket prev;
+        private Bucket next;
+
+        /**
+         * Creates an empty bucket and links it in directly above
+         * {@code below}, or as the lowest bucket if {@code below} is null.
+         */
+        private Bucket(int count, Bucket below) {
+            this.count = count;
+            this.prev = below;
+            this.next = below == null ? lowest : below.next;
+            if (below == null) {
+                lowest = this;
+            } else {
+                below.next = this;
+            }
+            if (next == null) {
+                highest = this;
+            } else {
+                next.prev = this;
+            }
+        }
+    }
+}
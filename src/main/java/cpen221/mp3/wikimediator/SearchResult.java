@@ -0,0 +1,77 @@
+package cpen221.mp3.wikimediator;
+
+import cpen221.mp3.fsftbuffer.Bufferable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchResult implements Bufferable {
+    /* Representation Invariant:
+     * query is not empty
+     * titles is not null and, if limit >= 0, titles.size() <= limit
+     */
+
+    /* Abstraction Function:
+     * Represents the results of searching Wikipedia for query with a
+     * maximum of limit results, or with no maximum if limit is -1, as the
+     * titles of the pages found in the order Wikipedia ranked them. If
+     * fewer than limit titles were found, titles holds every result of the
+     * query.
+     */
+
+    private final String query;
+
+    private final int limit;
+
+    private final List<String> titles;
+
+    /**
+     * Create the results of a search
+     * @param query the query that was searched for
+     * @param limit the maximum number of results that was asked for, or -1
+     *              if there was no maximum
+     * @param titles the titles found
+     */
+    public SearchResult(String query, int limit, List<String> titles) {
+        this.query = query;
+        this.limit = limit;
+        this.titles = List.copyOf(titles);
+    }
+
+    /**
+     * Checks whether these results can answer a search for the same query
+     * with a different limit, which is the case if the new limit is not
+     * larger than the one searched with, or if every result was found.
+     * @param limit the maximum number of results asked for, or -1 for no
+     *              maximum
+     * @return true if {@code getTitles(limit)} gives the same titles that
+     * searching again would
+     */
+    public boolean answers(int limit) {
+        if (this.limit < 0 || titles.size() < this.limit) {
+            return true;
+        }
+        return limit >= 0 && limit <= this.limit;
+    }
+
+    /**
+     * Get the first results of the search
+     * @param limit the maximum number of titles to return, or -1 for all of
+     *              them
+     * @return a new list of at most {@code limit} titles
+     */
+    public List<String> getTitles(int limit) {
+        if (limit < 0 || limit >= titles.size()) {
+            return new ArrayList<>(titles);
+        }
+        return new ArrayList<>(titles.subList(0, limit));
+    }
+
+    /**
+     * Get the query of the search
+     * @return the query
+     */
+    public String id() {
+        return query;
+    }
+}
@@ -0,0 +1,307 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TrendingCounts {
+    /* Representation Invariant:
+     * granularity > 0 and horizon > 0
+     * no Series in series is empty
+     * in every Series, the buckets from oldest to newest have strictly
+     * increasing starts and counts > 0, and sum is the sum of the counts
+     * total is the sum of the sums of every Series
+     * the keys of series are in the order in which they were last recorded
+     */
+
+    /* Abstraction Function:
+     * Represents how many times each query or page title was requested in
+     * the last "horizon" milliseconds, so that the most requested in any
+     * window of time up to the horizon can be found. Time is split into
+     * buckets of "granularity" milliseconds, bucket b covering the times
+     * from b * granularity up to, but not including, (b + 1) * granularity.
+     *
+     * series maps each key to a Series, a ring of the buckets in which it
+     * was requested, from oldest to newest, with the number of requests in
+     * each. Buckets without requests take no room, so a key takes room for
+     * at most one bucket per request. The sum of the counts of a Series is
+     * kept up to date, so a window that covers the horizon is counted
+     * without reading the buckets, and a smaller window reads only the
+     * buckets inside it, from the newest back.
+     *
+     * Buckets that end more than horizon milliseconds before the time are
+     * retired as the key is requested again or counted, and a key that has
+     * no buckets left is removed. Since series is in the order in which the
+     * keys were last requested, the keys that have not been requested for
+     * longest are first: every record also looks at up to RETIRE_PER_RECORD
+     * of them and removes those that have gone idle for the whole horizon,
+     * so keys that are never requested again are removed in O(1) amortised
+     * time per request, even if counts are never asked for. A bucket is
+     * counted in a window only if it starts after the start of the window,
+     * so counts may miss requests in the granularity milliseconds at the
+     * start of the window.
+     */
+
+    /* Thread Safety Arguments:
+     * Every method that reads or writes series or total is synchronized.
+     */
+
+    /**
+     * number of the least recently requested keys looked at by every record,
+     * more than one so that keys are retired faster than they are added
+     */
+    private static final int RETIRE_PER_RECORD = 2;
+
+    private final long granularity;
+    private final long horizon;
+    private final LinkedHashMap<String, Series> series =
+        new LinkedHashMap<>();
+    private long total;
+
+    /**
+     * Creates counts in which nothing has been requested.
+     *
+     * @param granularityMillis the length of a bucket of time, in
+     *                          milliseconds, > 0
+     * @param horizonMillis     how long requests are remembered for, in
+     *                          milliseconds, > 0
+     */
+    public TrendingCounts(long granularityMillis, long horizonMillis) {
+        if (granularityMillis <= 0 || horizonMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.granularity = granularityMillis;
+        this.horizon = horizonMillis;
+    }
+
+    /**
+     * Counts one request of {@code key}, and retires the buckets of
+     * {@code key} that are past the horizon, and the least recently
+     * requested keys that have no requests within the horizon.
+     *
+     * @param key        the query or page title requested
+     * @param timeMillis the time of the request, in milliseconds from
+     *                   January 1970 at midnight UTC
+     */
+    public synchronized void record(String key, long timeMillis) {
+        // moved to the end, as the most recently requested key
+        Series requests = series.remove(key);
+        if (requests == null) {
+            requests = new Series();
+        }
+        series.put(key, requests);
+        requests.add(Math.floorDiv(timeMillis, granularity));
+        total++;
+        retire(key, requests, timeMillis);
+        retireIdle(timeMillis);
+    }
+
+    /**
+     * Counts the requests of every key in a window of time, and retires the
+     * buckets that are past the horizon.
+     *
+     * @param windowMillis the length of the window, which ends at
+     *                     {@code nowMillis}, in milliseconds
+     * @param nowMillis    the time, in milliseconds from January 1970 at
+     *                     midnight UTC
+     * @return a new map of every key requested after
+     * {@code nowMillis - windowMillis} to the number of times it was, where
+     * windows longer than the horizon count only the horizon
+     */
+    public synchronized Map<String, Integer> countsWithin(long windowMillis,
+                                                          long nowMillis) {
+        long firstBucket = Math.floorDiv(nowMillis - windowMillis,
+            granularity) + 1;
+        Map<String, Integer> counts = new HashMap<>();
+        Iterator<Map.Entry<String, Series>> entries =
+            series.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Series> entry = entries.next();
+            Series requests = entry.getValue();
+            total -= requests.retire(firstRetained(nowMillis));
+            if (requests.size == 0) {
+                entries.remove();
+                continue;
+            }
+            int count = requests.countFrom(firstBucket);
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return a new map of every key to the times it was requested, each
+     * rounded down to the start of its bucket, oldest first
+     */
+    public synchronized Map<String, List<Long>> times() {
+        Map<String, List<Long>> times = new HashMap<>();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            Series requests = entry.getValue();
+            List<Long> keyTimes = new ArrayList<>(requests.sum);
+            for (int i = 0; i < requests.size; i++) {
+                int slot = requests.slot(i);
+                for (int c = 0; c < requests.counts[slot]; c++) {
+                    keyTimes.add(requests.starts[slot] * granularity);
+                }
+            }
+            times.put(entry.getKey(), keyTimes);
+        }
+        return times;
+    }
+
+    /**
+     * @return the number of requests remembered, of every key
+     */
+    public synchronized long total() {
+        return total;
+    }
+
+    /**
+     * @param key a query or page title
+     * @return the number of requests of {@code key} remembered
+     */
+    public synchronized int count(String key) {
+        Series requests = series.get(key);
+        return requests == null ? 0 : requests.sum;
+    }
+
+    /**
+     * @return the number of different keys that have requests remembered
+     */
+    public synchronized int size() {
+        return series.size();
+    }
+
+    private void retire(String key, Series requests, long nowMillis) {
+        total -= requests.retire(firstRetained(nowMillis));
+        if (requests.size == 0) {
+            series.remove(key);
+        }
+    }
+
+    /**
+     * Removes the least recently requested keys whose newest bucket is past
+     * the horizon, looking at no more than RETIRE_PER_RECORD of them
+     */
+    private void retireIdle(long nowMillis) {
+        long firstBucket = firstRetained(nowMillis);
+        Iterator<Series> eldest = series.values().iterator();
+        for (int i = 0; i < RETIRE_PER_RECORD && eldest.hasNext(); i++) {
+            Series requests = eldest.next();
+            if (requests.newest() >= firstBucket) {
+                return;
+            }
+            total -= requests.sum;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return the first bucket that is not entirely past the horizon
+     */
+    private long firstRetained(long nowMillis) {
+        return Math.floorDiv(nowMillis - horizon, granularity);
+    }
+
+    /**
+     * The buckets in which a key was requested, in a ring whose length is a
+     * power of two.
+     */
+    private static final class Series {
+        private long[] starts = new long[2];
+        private int[] counts = new int[2];
+        private int head;
+        private int size;
+        private int sum;
+
+        /**
+         * @return the position in the ring of the i-th oldest bucket
+         */
+        private int slot(int i) {
+            return (head + i) & (starts.length - 1);
+        }
+
+        /**
+         * @return the start of the newest bucket, with size > 0
+         */
+        private long newest() {
+            return starts[slot(size - 1)];
+        }
+
+        /**
+         * Counts a request in {@code bucket}, which is almost always the
+         * newest bucket or a new one after it
+         */
+        private void add(long bucket) {
+            sum++;
+            int i = size - 1;
+            while (i >= 0 && starts[slot(i)] > bucket) {
+                i--;
+            }
+            if (i >= 0 && starts[slot(i)] == bucket) {
+                counts[slot(i)]++;
+                return;
+            }
+
+            if (size == starts.length) {
+                grow();
+            }
+            // requests that arrive out of order shift newer buckets along
+            for (int j = size; j > i + 1; j--) {
+                starts[slot(j)] = starts[slot(j - 1)];
+                counts[slot(j)] = counts[slot(j - 1)];
+            }
+            starts[slot(i + 1)] = bucket;
+            counts[slot(i + 1)] = 1;
+            size++;
+        }
+
+        /**
+         * Removes the buckets before {@code firstBucket}
+         *
+         * @return the number of requests removed
+         */
+        private int retire(long firstBucket) {
+            int removed = 0;
+            while (size > 0 && starts[head] < firstBucket) {
+                removed += counts[head];
+                head = slot(1);
+                size--;
+            }
+            sum -= removed;
+            return removed;
+        }
+
+        /**
+         * @return the number of requests in {@code firstBucket} and after
+         */
+        private int countFrom(long firstBucket) {
+            if (size == 0 || starts[head] >= firstBucket) {
+                return sum;
+            }
+            int count = 0;
+            for (int i = size - 1; i >= 0 && starts[slot(i)] >= firstBucket;
+                 i--) {
+                count += counts[slot(i)];
+            }
+            return count;
+        }
+
+        private void grow() {
+            long[] newStarts = new long[starts.length * 2];
+            int[] newCounts = new int[counts.length * 2];
+            for (int i = 0; i < size; i++) {
+                newStarts[i] = starts[slot(i)];
+                newCounts[i] = counts[slot(i)];
+            }
+            starts = newStarts;
+            counts = newCounts;
+            head = 0;
+        }
+    }
+}
@@ -1,89 +1,314 @@
 package cpen221.mp3.wikimediator;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.CachedTicker;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import cpen221.mp3.fsftbuffer.Ticker;
 import cpen221.mp3.wikiTree.Node;
-import org.fastily.jwiki.core.Wiki;
+import cpen221.mp3.wikibackend.JWikiBackend;
+import cpen221.mp3.wikibackend.WikiBackend;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class WikiMediator implements AutoCloseable {
     /* Representation Invariant:
-     * Total number of times in requestHistory <= basicReqHistory.size()
-     * cache size <= basicReqTimes.size()
-     * sum of queryTimes.values.size() <= basicReqTimes()
-     * requestHistory.keySet() will contain all queryTimes.keySet()
-     * All elements contained within queryTimes.values() should be in
-     * basicReqTimes
+     * Total number of times in requestHistory <= loadHistory.total()
+     * cache size <= loadHistory.total()
+     * queryTimes.total() <= loadHistory.total()
+     * basicReqTimes.size() <= loadHistory.total()
+     * requestHistory.keySet() will contain all keys of queryTimes, unless
+     * zeitgeistCapacity > 0
      */
 
     /* Abstraction Function:
-     * Represents the mediator between a user and Wikipedia.
+     * Represents the mediator between a user and Wikipedia, which is reached
+     * through "wiki" (the live site, unless another WikiBackend is given).
      * A user should be able to easily interact with Wikipedia, using
      * this mediator. Previously requested pages are represented as
-     * Page objects in a finite size finite time buffer.
+     * Page objects in a finite size finite time buffer. A page that is
+     * requested after REFRESH_FRACTION of its staleness interval is fetched
+     * again from Wikipedia in the background, while the cached text is
+     * returned, so that popular pages do not go stale. Their text is kept
+     * compressed outside of the Java heap in pageStore, and released as soon
+     * as the page leaves the buffer. If diskCache is not null, pages that
+     * are bumped out of the buffer to make room are written to it by its
+     * own writer thread, and a page that is not in the buffer is looked for
+     * on disk before it is requested from Wikipedia. Every page remembers
+     * when its text was fetched from Wikipedia. It stays in the buffer for
+     * at most pageStaleness, and only until maximumAge has passed since it
+     * was fetched, so a page read back from disk or from the cache snapshot
+     * keeps only what was left of its time.
+     *
+     * The results of searches are kept in searchCache, by query, as
+     * SearchResults, with the same capacity and staleness interval as the
+     * pages. A search is answered from the cached results of its query if
+     * they were found with a limit at least as large, or if they are all of
+     * the results of the query.
+     *
+     * Titles that Wikipedia has no text for and queries that have no search
+     * results are remembered as MissingResults in missingResults, for
+     * MISSING_STALENESS seconds at most, and such a title or query is
+     * answered without asking Wikipedia again. Pages without text are not
+     * put in the page cache.
+     *
+     * When the mediator is closed, the pages in the cache are saved in
+     * local/pageCacheSnapshot.dat in the order in which they were last used,
+     * with the time each had left before going stale, and they are put back
+     * in the cache when the next mediator is created.
+     *
+     * If zeitgeistCapacity is greater than 0, requestHistory keeps only that
+     * many of the most requested Strings, and the counts zeitgeist ranks
+     * them by are approximate, see RequestRanking. How far they may be off
+     * is saved in local/zeitgeistErrors.json along with the counts.
+     *
+     * Every request is counted in loadHistory, by the second for the last
+     * PEAK_HORIZON seconds and by the minute before that, which is saved
+     * between runs. The exact times of the requests made since the mediator
+     * was created, at least for the last PEAK_HORIZON seconds, are also kept
+     * in basicReqTimes, so that windowedPeakLoad is exact for them. It
+     * starts with the saved requests of the last DEFAULT_PEAK_WINDOW seconds
+     * before the mediator was created, each at the start of its second, so
+     * that windows that span the restart count the requests on both sides.
+     * defaultWindowPeak is the peak load of DEFAULT_PEAK_WINDOW seconds in
+     * the requests saved by earlier runs.
+     *
+     * queryTimes remembers the search and getPage requests of the last
+     * TRENDING_HORIZON, in buckets of TRENDING_GRANULARITY, for trending.
      *
      * Request times are represented using the time in milliseconds from January
-     * 1970 at midnight UTC.
+     * 1970 at midnight UTC, as read from clock, since they are saved between
+     * runs. The caches and shortestPath measure time with ticker, which is
+     * monotonic unless a ticker is given, so that timeouts do not follow the
+     * wall clock when it is set. A ticker that is given is also the clock.
      *
      * Multiple requests to a mediator can occur at the same time.
      */
 
     /* Thread Safety Arguments:
-     * The class is thread safe because it implements,
-     * thread safe data types:
-     * - Avoids bad interleaving by using streams
-     * - read and writes that may affect thread safety are synchronized
-     * - Update times are synchronized
-     * - No methods support removal from data structures
+     * Every field except the request data is final, and the objects they
+     * refer to are thread safe: the buffers lock themselves, pageStore,
+     * diskCache and the request data synchronize on themselves, the
+     * counters are LongAdders, and the tickers and the wiki must be thread
+     * safe.
+     *
+     * The request data (requestHistory, queryTimes, basicReqTimes,
+     * loadHistory and defaultWindowPeak) is only replaced by readData,
+     * which holds the lock of the mediator. requestHistory, queryTimes,
+     * basicReqTimes and loadHistory are volatile, since search, getPage,
+     * zeitgeist, trending and close use them without the lock. Recording a
+     * request and reading the clock are done together under the lock, so
+     * basicReqTimes and loadHistory receive request times in order, and
+     * windowedPeakLoad reads them under the same lock.
+     *
+     * Concurrent getPage requests for the same missing page share one load
+     * in the buffer. A page that is due to be refreshed is fetched again by
+     * fetchPage on a thread of REFRESH_EXECUTOR. fetchPage only uses the
+     * wiki, the ticker, pageStore and missingResults, which are thread
+     * safe, and the buffer registers the refresh so that only one of them
+     * runs at a time for a page. A refresh that cannot be queued is
+     * dropped, see REFRESH_EXECUTOR.
+     *
+     * The removal listener is called by the buffer after it releases its
+     * lock, on the thread whose call removed the page. This happens when
+     * the page is bumped out, replaced by a refresh, timed out or
+     * invalidated. The listener hands the text to the writer thread of
+     * diskCache, through its synchronized putLater, and then releases the
+     * text in pageStore. The text of a page may therefore be released
+     * between the time getPage gets the page from the buffer and the time
+     * it reads the text. PageStore never frees text that is being read, and
+     * getText returns null once the text has been released, in which case
+     * getPage loads the text again. close skips released pages in the same
+     * way when it saves the cache.
      */
 
+    /**
+     * file that the cache is saved in when the mediator is closed
+     */
+    private static final String CACHE_SNAPSHOT = "local/pageCacheSnapshot.dat";
+    /**
+     * format of the cache snapshot, changed whenever the format changes
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+    /**
+     * fraction of the staleness interval after which a requested page is
+     * fetched again in the background
+     */
+    private static final double REFRESH_FRACTION = 0.8;
+    /**
+     * maximum number of titles and queries remembered as missing
+     */
+    private static final int MISSING_CAPACITY = 1024;
+    /**
+     * maximum time, in seconds, a title or query is remembered as missing,
+     * kept short so that new pages are found soon after they are created
+     */
+    private static final int MISSING_STALENESS = 60;
+    /**
+     * length, in milliseconds, of the buckets of time that requests are
+     * counted in for trending
+     */
+    private static final long TRENDING_GRANULARITY = 10;
+    /**
+     * how long, in milliseconds, requests are remembered for trending
+     */
+    private static final long TRENDING_HORIZON = TimeUnit.DAYS.toMillis(1);
+    /**
+     * time window, in seconds, of windowedPeakLoad(), whose peak is kept up
+     * to date as requests are made
+     */
+    private static final int DEFAULT_PEAK_WINDOW = 30;
+    /**
+     * number of seconds that requests are counted by the second for
+     * windowedPeakLoad, before they are only counted by the minute
+     */
+    private static final int PEAK_HORIZON =
+        (int) TimeUnit.DAYS.toSeconds(1);
+    /**
+     * number of threads that refresh pages
+     */
+    private static final int REFRESH_THREADS = 4;
+    /**
+     * number of refreshes that can wait for a thread
+     */
+    private static final int REFRESH_QUEUE = 256;
+    /**
+     * fetches pages that are about to go stale, without holding up requests.
+     * Refreshes that do not fit in the queue are rejected, which the cache
+     * takes as the refresh being dropped: the page is kept until it goes
+     * stale, or is refreshed by a later request. A policy that discarded
+     * them silently would leave the refresh registered with the cache.
+     */
+    private static final ExecutorService REFRESH_EXECUTOR =
+        newRefreshExecutor();
+
+    /**
+     * monotonic clock shared by mediators that are not given a ticker, read
+     * every millisecond in the background
+     */
+    private static final Ticker DEFAULT_TICKER =
+        new CachedTicker(Ticker.systemTicker());
+    /**
+     * wall clock shared by mediators that are not given a ticker, read
+     * every millisecond in the background
+     */
+    private static final Ticker DEFAULT_CLOCK =
+        new CachedTicker(Ticker.wallClockTicker());
+
+    /**
+     * clock that cache timeouts are read from
+     */
+    private final Ticker ticker;
+    /**
+     * clock that request times are read from, in nanoseconds since January
+     * 1970 at midnight UTC
+     */
+    private final Ticker clock;
     /**
      * finite size finite time buffer to store pages
      */
     private final FSFTBuffer<Page> cache;
     /**
-     * API connection to Wikipedia
+     * time, in nanoseconds, that a page can be cached after it was fetched
+     */
+    private final long pageStaleness;
+    /**
+     * time, in nanoseconds, after which the text of a page is too old to
+     * be cached in memory or on disk
+     */
+    private final long maximumAge;
+    /**
+     * finite size finite time buffer to store search results
+     */
+    private final FSFTBuffer<SearchResult> searchCache;
+    /**
+     * searches answered from searchCache, and searches that were not
      */
-    private final Wiki wiki;
+    private final LongAdder searchHits = new LongAdder();
+    private final LongAdder searchMisses = new LongAdder();
+    /**
+     * titles and queries that Wikipedia recently had nothing for
+     */
+    private final FSFTBuffer<MissingResult> missingResults;
+    /**
+     * off-heap, compressed storage for the text of cached pages
+     */
+    private final PageStore pageStore = new PageStore(true);
+    /**
+     * second cache tier on disk for pages bumped out of the cache, or null
+     */
+    private final PageDiskCache diskCache;
+    /**
+     * the wiki that pages, search results and links come from
+     */
+    private final WikiBackend wiki;
 
     /**
-     * search and getPage requests used in zeitgeist
+     * maximum number of Strings kept for zeitgeist, or 0 to keep all of them
      */
-    private Map<String, Integer> requestHistory;
+    private final int zeitgeistCapacity;
     /**
-     * queries from search and getPage with their times used in trending
+     * search and getPage requests, ranked by count, used in zeitgeist
      */
-    private Map<String, List<Long>> queryTimes;
+    private volatile RequestRanking requestHistory;
     /**
-     * basic request times used in windowedPeakLoad
+     * recent queries from search and getPage, counted by time, used in
+     * trending
      */
-    private List<Long> basicReqTimes;
+    private volatile TrendingCounts queryTimes;
+    /**
+     * basic request times of this run used in windowedPeakLoad
+     */
+    private volatile RequestLog basicReqTimes;
+    /**
+     * number of basic requests in every second or minute, used in
+     * windowedPeakLoad
+     */
+    private volatile LoadHistogram loadHistory;
+    /**
+     * peak load of the default window in the requests of earlier runs
+     */
+    private int defaultWindowPeak;
 
     /**
      * Creates a mediator service to cache wikipedia pages.
      * Stores a maximum of {@code capacity} number of pages that have a cache
      * time that is less than {@code stalenessInterval}.
      * Once a page reaches its {@code stalenessInterval} within the cache,
-     * it is removed. When at max capacity the oldest pages in the cache are
-     * removed once any new page is added.
+     * it is removed. When at max capacity the least recently used pages in
+     * the cache are removed once any new page is added, unless the new page
+     * has been requested less often recently than they have, in which case
+     * the new page is dropped instead.
      *
      * @param capacity          maximum number of pages that can be stored in
      *                          the cache.
@@ -91,9 +316,216 @@ public class WikiMediator implements AutoCloseable {
      *                          cache.
      */
     public WikiMediator(int capacity, int stalenessInterval) {
-        this.wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
-        this.cache = new FSFTBuffer<>(capacity, stalenessInterval);
+        this(capacity, stalenessInterval, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a mediator service to cache wikipedia pages, whose cache is
+     * also limited by the memory taken up by the text of the cached pages.
+     * When adding a page would take the cache over {@code maximumCacheBytes},
+     * the oldest pages in the cache are removed until it fits.
+     *
+     * @param capacity          maximum number of pages that can be stored in
+     *                          the cache.
+     * @param stalenessInterval maximum time that a page can be stored in the
+     *                          cache.
+     * @param maximumCacheBytes maximum total size, in bytes, of the
+     *                          compressed text of the pages stored in the
+     *                          cache, see
+     *                          {@link Page#byteSize()}.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        long maximumCacheBytes) {
+        this(capacity, stalenessInterval, maximumCacheBytes, 0, 0);
+    }
+
+    /**
+     * Creates a mediator service to cache wikipedia pages in memory, and
+     * pages that no longer fit in memory in local/pageCache.dat. A page
+     * written to disk is used until it has been there for
+     * {@code diskStalenessInterval}, and once the file would grow past
+     * {@code maximumDiskBytes} the oldest pages on disk are dropped.
+     *
+     * @param capacity              maximum number of pages that can be
+     *                              stored in the cache.
+     * @param stalenessInterval     maximum time that a page can be stored in
+     *                              the cache.
+     * @param maximumCacheBytes     maximum total size, in bytes, of the
+     *                              compressed text of the pages stored in
+     *                              the cache.
+     * @param diskStalenessInterval maximum time, in seconds, that a page can
+     *                              be stored on disk.
+     * @param maximumDiskBytes      maximum size, in bytes, of the file on
+     *                              disk, at most Integer.MAX_VALUE. If 0,
+     *                              pages are not cached on disk.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        long maximumCacheBytes, int diskStalenessInterval,
+                        long maximumDiskBytes) {
+        this(capacity, stalenessInterval, maximumCacheBytes,
+            diskStalenessInterval, maximumDiskBytes, DEFAULT_TICKER,
+            DEFAULT_CLOCK, new JWikiBackend(), 0);
+    }
+
+    /**
+     * Creates a mediator service like
+     * {@link #WikiMediator(int, int, long, int, long)}, which reads the time
+     * from {@code ticker} instead of the system clock.
+     *
+     * @param capacity              maximum number of pages that can be
+     *                              stored in the cache.
+     * @param stalenessInterval     maximum time that a page can be stored in
+     *                              the cache.
+     * @param maximumCacheBytes     maximum total size, in bytes, of the
+     *                              compressed text of the pages stored in
+     *                              the cache.
+     * @param diskStalenessInterval maximum time, in seconds, that a page can
+     *                              be stored on disk.
+     * @param maximumDiskBytes      maximum size, in bytes, of the file on
+     *                              disk, or 0 to not cache pages on disk.
+     * @param ticker                the clock, which must read the time in
+     *                              nanoseconds since January 1970 at
+     *                              midnight UTC, since request times are
+     *                              saved between runs.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        long maximumCacheBytes, int diskStalenessInterval,
+                        long maximumDiskBytes, Ticker ticker) {
+        this(capacity, stalenessInterval, maximumCacheBytes,
+            diskStalenessInterval, maximumDiskBytes, ticker,
+            new JWikiBackend());
+    }
+
+    /**
+     * Creates a mediator service like
+     * {@link #WikiMediator(int, int)}, which gets pages from {@code wiki}
+     * instead of Wikipedia, for example to measure it offline.
+     *
+     * @param capacity          maximum number of pages that can be stored in
+     *                          the cache.
+     * @param stalenessInterval maximum time that a page can be stored in the
+     *                          cache.
+     * @param wiki              the wiki to get pages, search results and
+     *                          links from.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        WikiBackend wiki) {
+        this(capacity, stalenessInterval, Long.MAX_VALUE, 0, 0,
+            DEFAULT_TICKER, DEFAULT_CLOCK, wiki, 0);
+    }
+
+    /**
+     * Creates a mediator service like
+     * {@link #WikiMediator(int, int, long, int, long, Ticker)}, which gets
+     * pages from {@code wiki} instead of Wikipedia.
+     *
+     * @param capacity              maximum number of pages that can be
+     *                              stored in the cache.
+     * @param stalenessInterval     maximum time that a page can be stored in
+     *                              the cache.
+     * @param maximumCacheBytes     maximum total size, in bytes, of the
+     *                              compressed text of the pages stored in
+     *                              the cache.
+     * @param diskStalenessInterval maximum time, in seconds, that a page can
+     *                              be stored on disk.
+     * @param maximumDiskBytes      maximum size, in bytes, of the file on
+     *                              disk, or 0 to not cache pages on disk.
+     * @param ticker                the clock, which must read the time in
+     *                              nanoseconds since January 1970 at
+     *                              midnight UTC.
+     * @param wiki                  the wiki to get pages, search results
+     *                              and links from.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        long maximumCacheBytes, int diskStalenessInterval,
+                        long maximumDiskBytes, Ticker ticker,
+                        WikiBackend wiki) {
+        this(capacity, stalenessInterval, maximumCacheBytes,
+            diskStalenessInterval, maximumDiskBytes, ticker, wiki, 0);
+    }
+
+    /**
+     * Creates a mediator service like
+     * {@link #WikiMediator(int, int, long, int, long, Ticker, WikiBackend)},
+     * which, if {@code zeitgeistCapacity} is not 0, only keeps count of the
+     * {@code zeitgeistCapacity} most requested Strings for zeitgeist, so
+     * that the memory it takes does not grow with the number of different
+     * Strings requested. The counts are then approximate, see
+     * {@link #zeitgeistError()}.
+     *
+     * @param capacity              maximum number of pages that can be
+     *                              stored in the cache.
+     * @param stalenessInterval     maximum time that a page can be stored in
+     *                              the cache.
+     * @param maximumCacheBytes     maximum total size, in bytes, of the
+     *                              compressed text of the pages stored in
+     *                              the cache.
+     * @param diskStalenessInterval maximum time, in seconds, that a page can
+     *                              be stored on disk.
+     * @param maximumDiskBytes      maximum size, in bytes, of the file on
+     *                              disk, or 0 to not cache pages on disk.
+     * @param ticker                the clock, which must read the time in
+     *                              nanoseconds since January 1970 at
+     *                              midnight UTC.
+     * @param wiki                  the wiki to get pages, search results
+     *                              and links from.
+     * @param zeitgeistCapacity     maximum number of Strings counted for
+     *                              zeitgeist, or 0 to count every String
+     *                              exactly. About 10,000 Strings fit in a
+     *                              few megabytes.
+     */
+    public WikiMediator(int capacity, int stalenessInterval,
+                        long maximumCacheBytes, int diskStalenessInterval,
+                        long maximumDiskBytes, Ticker ticker,
+                        WikiBackend wiki, int zeitgeistCapacity) {
+        this(capacity, stalenessInterval, maximumCacheBytes,
+            diskStalenessInterval, maximumDiskBytes, ticker, ticker, wiki,
+            zeitgeistCapacity);
+    }
+
+    /**
+     * Creates a mediator service that measures timeouts with
+     * {@code ticker} and reads the times of requests from {@code clock}.
+     */
+    private WikiMediator(int capacity, int stalenessInterval,
+                         long maximumCacheBytes, int diskStalenessInterval,
+                         long maximumDiskBytes, Ticker ticker, Ticker clock,
+                         WikiBackend wiki, int zeitgeistCapacity) {
+        if (zeitgeistCapacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.zeitgeistCapacity = zeitgeistCapacity;
+        this.ticker = ticker;
+        this.clock = clock;
+        this.wiki = wiki;
+        this.pageStaleness = TimeUnit.SECONDS.toNanos(stalenessInterval);
+        this.maximumAge = maximumDiskBytes > 0 ? Math.max(pageStaleness,
+            TimeUnit.SECONDS.toNanos(diskStalenessInterval)) : pageStaleness;
+        this.diskCache = maximumDiskBytes > 0
+            ? openDiskCache(diskStalenessInterval, maximumDiskBytes, ticker)
+            : null;
+        FSFTBuffer.Builder<Page> builder = new FSFTBuffer.Builder<Page>()
+            .capacity(capacity)
+            .timeout(stalenessInterval)
+            .expiry(this::remainingTime)
+            .maximumWeight(maximumCacheBytes, Page::byteSize)
+            .admissionFilter(true)
+            .refreshAfter(REFRESH_FRACTION, REFRESH_EXECUTOR)
+            .removalListener(this::removed)
+            .ticker(ticker);
+        this.cache = builder.build();
+        this.searchCache = new FSFTBuffer.Builder<SearchResult>()
+            .capacity(capacity)
+            .timeout(stalenessInterval)
+            .ticker(ticker)
+            .build();
+        this.missingResults = new FSFTBuffer.Builder<MissingResult>()
+            .capacity(MISSING_CAPACITY)
+            .timeout(Math.min(MISSING_STALENESS, stalenessInterval))
+            .ticker(ticker)
+            .build();
         readData();
+        readCacheSnapshot(capacity);
         //checkRep();
     }
 
@@ -112,12 +544,13 @@ public class WikiMediator implements AutoCloseable {
                 }.getType());
             reader.close();
             try {
-                requestHistory = new ConcurrentHashMap<>(zeitgeist);
+                requestHistory = new RequestRanking(zeitgeist,
+                    readZeitgeistErrors(gson), zeitgeistCapacity);
             } catch (NullPointerException npe) {
-                requestHistory = new ConcurrentHashMap<>();
+                requestHistory = new RequestRanking(zeitgeistCapacity);
             }
         } catch (IOException ioException) {
-            requestHistory = new ConcurrentHashMap<>();
+            requestHistory = new RequestRanking(zeitgeistCapacity);
         }
 
         // Get trending data
@@ -128,33 +561,180 @@ public class WikiMediator implements AutoCloseable {
                 new TypeToken<Map<String, List<Long>>>() {
                 }.getType());
             reader.close();
-            try {
-                queryTimes = new ConcurrentHashMap<>(trending);
-            } catch (NullPointerException npe) {
-                queryTimes = new ConcurrentHashMap<>();
+            queryTimes = new TrendingCounts(TRENDING_GRANULARITY,
+                TRENDING_HORIZON);
+            if (trending != null) {
+                long now = currentTimeMillis();
+                for (Map.Entry<String, List<Long>> entry
+                    : trending.entrySet()) {
+                    for (long time : entry.getValue()) {
+                        if (time > now - TRENDING_HORIZON) {
+                            queryTimes.record(entry.getKey(), time);
+                        }
+                    }
+                }
             }
         } catch (IOException ioException) {
-            queryTimes = new ConcurrentHashMap<>();
+            queryTimes = new TrendingCounts(TRENDING_GRANULARITY,
+                TRENDING_HORIZON);
         }
 
-        // Get windowedPeakLoad data
+        // Get windowedPeakLoad data, which older versions saved as a list
+        // of every request time
+        basicReqTimes = newRequestLog();
+        loadHistory = new LoadHistogram(PEAK_HORIZON);
         try {
             Reader reader = Files.newBufferedReader(Paths
                 .get("local/peakLoadData.json"));
-            List<Long> windowed = gson.fromJson(reader,
-                new TypeToken<List<Long>>() {
-                }.getType());
+            JsonElement windowed = JsonParser.parseReader(reader);
             reader.close();
-            try {
-                basicReqTimes = new ArrayList<>(windowed);
-            } catch (NullPointerException npe) {
-                basicReqTimes = new ArrayList<>();
+            if (windowed.isJsonObject()) {
+                loadHistory = new LoadHistogram(PEAK_HORIZON,
+                    gson.fromJson(windowed, LoadHistogram.Snapshot.class));
+            } else if (windowed.isJsonArray()) {
+                List<Long> times = gson.fromJson(windowed,
+                    new TypeToken<List<Long>>() {
+                    }.getType());
+                Collections.sort(times);
+                for (long time : times) {
+                    loadHistory.add(time);
+                }
             }
+        } catch (IOException | JsonParseException exception) {
+            loadHistory = new LoadHistogram(PEAK_HORIZON);
+        }
+        defaultWindowPeak = loadHistory.peak(DEFAULT_PEAK_WINDOW);
+
+        // a window that spans the restart counts the last saved requests too
+        for (long time : loadHistory.newestTimes(DEFAULT_PEAK_WINDOW)) {
+            basicReqTimes.add(time);
+        }
+    }
+
+    /**
+     * Counts a basic request made at {@code requestTime}
+     */
+    private synchronized void recordRequest(long requestTime) {
+        basicReqTimes.add(requestTime);
+        basicReqTimes.retireBefore(
+            requestTime - TimeUnit.SECONDS.toMillis(PEAK_HORIZON));
+        loadHistory.add(requestTime);
+    }
+
+    private static RequestLog newRequestLog() {
+        return new RequestLog(TimeUnit.SECONDS.toMillis(DEFAULT_PEAK_WINDOW));
+    }
+
+    /**
+     * Reads how far the saved zeitgeist counts may be off, which is nothing
+     * if they were saved by a mediator that counted exactly
+     */
+    private static Map<String, Integer> readZeitgeistErrors(Gson gson) {
+        try (Reader reader = Files.newBufferedReader(Paths
+            .get("local/zeitgeistErrors.json"))) {
+            Map<String, Integer> errors = gson.fromJson(reader,
+                new TypeToken<Map<String, Integer>>() {
+                }.getType());
+            return errors == null ? new HashMap<>() : errors;
         } catch (IOException ioException) {
-            basicReqTimes = new ArrayList<>();
+            return new HashMap<>();
         }
     }
 
+    /**
+     * Puts the pages saved by the last call to {@code close} back in the
+     * cache, unless they have gone stale since. Nothing is restored if there
+     * is no snapshot or it cannot be read.
+     *
+     * @param capacity maximum number of pages that can be stored in the
+     *                 cache
+     */
+    private void readCacheSnapshot(int capacity) {
+        Path path = Paths.get(CACHE_SNAPSHOT);
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                return;
+            }
+            long elapsed = currentTimeMillis() - in.readLong();
+            int count = in.readInt();
+
+            // the oldest pages would be bumped out again, so skip over them
+            int skip = Math.max(0, count - capacity);
+            List<FSFTBuffer.SnapshotEntry<Page>> entries = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long remaining = in.readLong() - elapsed;
+                byte[] title = new byte[in.readInt()];
+                in.readFully(title);
+                int textLength = in.readInt();
+                if (i < skip || remaining <= 0) {
+                    in.readFully(new byte[textLength]);
+                    continue;
+                }
+                byte[] text = new byte[textLength];
+                in.readFully(text);
+                long fetchedAt = ticker.read() - pageStaleness
+                    + TimeUnit.MILLISECONDS.toNanos(remaining);
+                entries.add(new FSFTBuffer.SnapshotEntry<>(
+                    new Page(new String(title, StandardCharsets.UTF_8),
+                        new String(text, StandardCharsets.UTF_8), pageStore,
+                        fetchedAt),
+                    remaining));
+            }
+            cache.restore(entries);
+        } catch (EOFException eofException) {
+            // a truncated snapshot is ignored
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the pages in the cache, see {@code readCacheSnapshot}. The
+     * snapshot starts with its version, the time it was written and the
+     * number of pages, followed, for every page from least to most recently
+     * used, by the time it had left before going stale in milliseconds, and
+     * the UTF-8 title and text, each preceded by its length.
+     */
+    private void writeCacheSnapshot() throws IOException {
+        List<FSFTBuffer.SnapshotEntry<Page>> entries = cache.snapshot();
+        Path path = Paths.get(CACHE_SNAPSHOT);
+        Path temporary = Paths.get(CACHE_SNAPSHOT + ".tmp");
+
+        // pages released since the snapshot was taken are left out
+        List<String> texts = new ArrayList<>();
+        List<FSFTBuffer.SnapshotEntry<Page>> kept = new ArrayList<>();
+        for (FSFTBuffer.SnapshotEntry<Page> entry : entries) {
+            String pageText = entry.value().getText();
+            if (pageText != null) {
+                texts.add(pageText);
+                kept.add(entry);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(currentTimeMillis());
+            out.writeInt(kept.size());
+            for (int i = 0; i < kept.size(); i++) {
+                byte[] title = kept.get(i).value().id()
+                    .getBytes(StandardCharsets.UTF_8);
+                byte[] text = texts.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeLong(kept.get(i).remainingMillis());
+                out.writeInt(title.length);
+                out.write(title);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     /**
      * From a given query, return a list of maximum length {@code limit} of
      * Page titles
@@ -171,24 +751,35 @@ public class WikiMediator implements AutoCloseable {
     public List<String> search(String query, int limit) {
         long requestTime;
         synchronized (this) {
-            requestTime = System.currentTimeMillis();
-            basicReqTimes.add(requestTime);
+            requestTime = currentTimeMillis();
+            recordRequest(requestTime);
         }
 
         if (query == null || query.isEmpty() || limit == 0) {
             return new ArrayList<>();
         }
 
+        queryTimes.record(query, requestTime);
 
-        if (!queryTimes.containsKey(query)) {
-            queryTimes.put(query, new ArrayList<>());
-        }
-        queryTimes.get(query).add(requestTime);
+        requestHistory.increment(query);
 
+        if (missingResults.getIfPresent(MissingResult.searchId(query))
+            != null) {
+            return new ArrayList<>();
+        }
+        SearchResult cached = searchCache.getIfPresent(query);
+        if (cached != null && cached.answers(limit)) {
+            searchHits.increment();
+            return cached.getTitles(limit);
+        }
+        searchMisses.increment();
 
         List<String> search = wiki.search(query, limit);
-        int requestCount = requestHistory.getOrDefault(query, 0);
-        this.requestHistory.put(query, ++requestCount);
+        if (search.isEmpty()) {
+            missingResults.put(MissingResult.search(query));
+        } else {
+            searchCache.put(new SearchResult(query, limit, search));
+        }
 
         return new ArrayList<>(search);
     }
@@ -204,34 +795,150 @@ public class WikiMediator implements AutoCloseable {
     public String getPage(String pageTitle) {
         long requestTime;
         synchronized (this) {
-            requestTime = System.currentTimeMillis();
-            basicReqTimes.add(requestTime);
+            requestTime = currentTimeMillis();
+            recordRequest(requestTime);
         }
 
         if (pageTitle == null || pageTitle.isEmpty()) {
             return "";
         }
 
-        synchronized (this) {
-            if (!queryTimes.containsKey(pageTitle)) {
-                queryTimes.put(pageTitle, new ArrayList<>());
+        queryTimes.record(pageTitle, requestTime);
+
+        requestHistory.increment(pageTitle);
+
+        if (missingResults.getIfPresent(MissingResult.pageId(pageTitle))
+            != null) {
+            return "";
+        }
+
+        // concurrent requests for the same missing page share one fetch
+        Page page = cache.getOrLoad(pageTitle, this::loadPage,
+            this::fetchPage);
+        if (page == null) {
+            return "";
+        }
+        String pageText = page.getText();
+        if (pageText == null) {
+            // the page left the cache and was released as it was returned
+            pageText = loadText(pageTitle);
+        }
+        return pageText == null ? "" : pageText;
+    }
+
+    /**
+     * Gets a page that is not in the cache, from disk if it is there and
+     * otherwise from Wikipedia, see {@code fetchPage}
+     */
+    private Page loadPage(String pageTitle) {
+        if (diskCache != null) {
+            try {
+                PageDiskCache.StoredPage stored = diskCache.load(pageTitle);
+                if (stored != null) {
+                    return new Page(pageTitle, stored.text(), pageStore,
+                        TimeUnit.MILLISECONDS.toNanos(stored.fetchedAt()));
+                }
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
             }
-            queryTimes.get(pageTitle).add(requestTime);
         }
+        return fetchPage(pageTitle);
+    }
 
-        String pageText;
-        try {
-            pageText = cache.get(pageTitle).getText();
-        } catch (NoSuchElementException nse) {
-            pageText = wiki.getPageText(pageTitle);
-            cache.put(new Page(pageTitle, pageText));
+    /**
+     * Gets a page from Wikipedia, or null if it has no text, in which case
+     * it is remembered as missing. Pages are refreshed with this, not
+     * loadPage, since the copy on disk is no newer than the one being
+     * refreshed.
+     */
+    private Page fetchPage(String pageTitle) {
+        long fetchedAt = ticker.read();
+        String pageText = wiki.getPageText(pageTitle);
+        if (pageText == null || pageText.isEmpty()) {
+            missingResults.put(MissingResult.page(pageTitle));
+            return null;
         }
+        return new Page(pageTitle, pageText, pageStore, fetchedAt);
+    }
 
-        synchronized (this) {
-            int requestCount = requestHistory.getOrDefault(pageTitle, 0);
-            requestHistory.put(pageTitle, ++requestCount);
+    /**
+     * Finds how long a page may stay in the cache: the staleness interval,
+     * or what is left of maximumAge since it was fetched if that is less
+     */
+    private long remainingTime(Page page, long now) {
+        if (page.fetchedAt() == Page.UNKNOWN) {
+            return pageStaleness;
+        }
+        return Math.max(0, Math.min(pageStaleness,
+            page.fetchedAt() + maximumAge - now));
+    }
+
+    /**
+     * Gets the text of a page that is not in the cache, from disk if it is
+     * there and otherwise from Wikipedia
+     */
+    private String loadText(String pageTitle) {
+        if (diskCache != null) {
+            try {
+                String pageText = diskCache.get(pageTitle);
+                if (pageText != null) {
+                    return pageText;
+                }
+            } catch (IOException ioException) {
+                ioException.printStackTrace();
+            }
+        }
+        return wiki.getPageText(pageTitle);
+    }
+
+    /**
+     * Releases the text of a page that left the cache, first handing it to
+     * the disk cache to write in the background if it was bumped out to
+     * make room
+     */
+    private void removed(Page page, RemovalCause cause) {
+        if (diskCache != null && cause == RemovalCause.SIZE) {
+            String pageText = page.getText();
+            if (pageText != null) {
+                long fetchedAt = page.fetchedAt() == Page.UNKNOWN
+                    ? ticker.read() : page.fetchedAt();
+                diskCache.putLater(page.id(), pageText,
+                    TimeUnit.NANOSECONDS.toMillis(fetchedAt));
+            }
+        }
+        page.release();
+    }
+
+    /**
+     * Creates the executor that refreshes pages, with at most
+     * REFRESH_THREADS threads, which stop when they have been idle for a
+     * minute, and REFRESH_QUEUE waiting refreshes
+     */
+    private static ExecutorService newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS,
+            REFRESH_THREADS, 1, TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(REFRESH_QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "page-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Opens the disk cache, or returns null if it cannot be opened, in which
+     * case pages are only cached in memory
+     */
+    private static PageDiskCache openDiskCache(int stalenessInterval,
+                                               long maximumBytes,
+                                               Ticker ticker) {
+        try {
+            return new PageDiskCache(stalenessInterval, maximumBytes, ticker);
+        } catch (IOException ioException) {
+            ioException.printStackTrace();
+            return null;
         }
-        return pageText;
     }
 
     /**
@@ -245,33 +952,32 @@ public class WikiMediator implements AutoCloseable {
      * @return a list of the most common occurring Strings of
      * {@code query} and {@code pageTitle} called in {@code search} and
      * {@code getPage}, if there is a tie queries ares sorted in
-     * anti-lexicographical
+     * anti-lexicographical. Takes O({@code limit}) time, however many
+     * different Strings have been requested. If the mediator was created
+     * with a zeitgeistCapacity, the counts may be too high by up to
+     * {@link #zeitgeistError()}.
      */
     public List<String> zeitgeist(int limit) {
         synchronized (this) {
-            long requestTime = System.currentTimeMillis();
-            basicReqTimes.add(requestTime);
+            long requestTime = currentTimeMillis();
+            recordRequest(requestTime);
         }
 
+        return requestHistory.top(limit);
+    }
 
-        //Creates a list of keys sorted in non-decreasing order by their values
-        List<String> reqHis;
-
-        synchronized (this) {
-            reqHis = requestHistory.entrySet().stream()
-                .sorted(Comparator.comparingInt(Map.Entry::getValue))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-
-
-            Collections.reverse(reqHis);
-        }
-
-        if (reqHis.size() >= limit) {
-            return new ArrayList<>(reqHis.subList(0, limit));
-        } else {
-            return new ArrayList<>(reqHis);
-        }
+    /**
+     * Gets how far the counts zeitgeist ranks Strings by may be off. Every
+     * count is at least the true number of requests, and at most this much
+     * higher. A String requested more times than this is always ranked.
+     * This is not a request, so it is not counted by windowedPeakLoad.
+     *
+     * @return 0 if every String is counted exactly, and otherwise at most
+     * the number of search and getPage requests divided by the
+     * zeitgeistCapacity of the mediator
+     */
+    public int zeitgeistError() {
+        return requestHistory.maximumError();
     }
 
     /**
@@ -288,35 +994,26 @@ public class WikiMediator implements AutoCloseable {
      *                           list of most frequent requests
      * @return list of the most frequent requests of Strings made by
      * {@code search} and {@code getPage} in non-increasing order,
-     * If there is a tie, ordering between ties is non-deterministic
+     * If there is a tie, ordering between ties is non-deterministic.
+     * Only requests of the last day are remembered, and requests in the
+     * first 10 milliseconds of the window may not be counted. Takes time
+     * proportional to the number of Strings requested in the last day and
+     * the requests of each in the window, however long ago the first
+     * request was.
      */
     public List<String> trending(int timeLimitInSeconds, int maxItems) {
         long requestTime;
         synchronized (this) {
-            requestTime = System.currentTimeMillis();
-            basicReqTimes.add(requestTime);
+            requestTime = currentTimeMillis();
+            recordRequest(requestTime);
         }
 
-        Map<String, Integer> trendingQueries = new HashMap<>();
-        List<String> trending;
-
-        synchronized (this) {
-            for (String query : queryTimes.keySet()) {
-                trendingQueries.put(query, (int) queryTimes.get(query).stream()
-                    .filter(
-                        time -> time > requestTime - TimeUnit.SECONDS
-                            .toMillis(timeLimitInSeconds)).count());
-                if (trendingQueries.get(query) == 0) {
-                    trendingQueries.remove(query);
-                }
-            }
-
-            trending = trendingQueries.entrySet().stream()
-                .sorted(Map.Entry.comparingByValue())
-                .limit(maxItems)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
-        }
+        Map<String, Integer> trendingQueries = queryTimes.countsWithin(
+            TimeUnit.SECONDS.toMillis(timeLimitInSeconds), requestTime);
+        List<String> trending = trendingQueries.entrySet().stream()
+            .sorted(Map.Entry.comparingByValue())
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
 
 
         Collections.reverse(trending);
@@ -337,36 +1034,25 @@ public class WikiMediator implements AutoCloseable {
      *
      * @param timeWindowInSeconds time window to find the maximum number of
      *                            requests made
-     * @return the max number of requests seen in a {@code timeWindowInSeconds}
+     * @return the max number of requests seen in a {@code timeWindowInSeconds}.
+     * Requests of the last day are counted to the millisecond, requests of
+     * earlier runs to the second, and requests older than a day are
+     * estimated from the number of requests in each minute. Takes constant
+     * time for a window of 30 seconds. Any other window takes time
+     * proportional to the number of requests in the last day, plus the
+     * 86,400 seconds of the last day and the minutes before it.
      */
     public int windowedPeakLoad(int timeWindowInSeconds) {
         synchronized (this) {
-            long requestTime = System.currentTimeMillis();
-            basicReqTimes.add(requestTime);
-        }
-
-
-        int requestCounter = 0;
-        int maxRequests = requestCounter;
-
-        synchronized (this) {
-            for (Long request : basicReqTimes) {
-                long startTime = request;
-                List<Long> timeWindowReq = basicReqTimes.stream()
-                    .filter(time -> (time >= startTime &&
-                        (time < (startTime + TimeUnit.SECONDS
-                            .toMillis(timeWindowInSeconds)))))
-                    .collect(Collectors.toList());
-
-                requestCounter = timeWindowReq.size();
-                if (requestCounter > maxRequests) {
-                    maxRequests = requestCounter;
-                }
+            long requestTime = currentTimeMillis();
+            recordRequest(requestTime);
+            int peak = basicReqTimes.peak(
+                TimeUnit.SECONDS.toMillis(timeWindowInSeconds));
+            if (timeWindowInSeconds == DEFAULT_PEAK_WINDOW) {
+                return Math.max(peak, defaultWindowPeak);
             }
+            return Math.max(peak, loadHistory.peak(timeWindowInSeconds));
         }
-
-
-        return maxRequests;
     }
 
     /**
@@ -376,10 +1062,11 @@ public class WikiMediator implements AutoCloseable {
      * request.
      *
      * @return the max number of requests seen in a time window of 30-seconds.
-     * This includes the current call of {@code windowedPeakLoad}
+     * This includes the current call of {@code windowedPeakLoad}. Takes
+     * constant time.
      */
     public int windowedPeakLoad() {
-        return windowedPeakLoad(30);
+        return windowedPeakLoad(DEFAULT_PEAK_WINDOW);
     }
 
     /**
@@ -400,7 +1087,12 @@ public class WikiMediator implements AutoCloseable {
     public List<String> shortestPath(String pageTitle1, String pageTitle2, int timeout) throws
         TimeoutException {
 
-        Node head = new Node(pageTitle1, pageTitle2, timeout);
+        Node head = new Node(pageTitle1, pageTitle2, timeout, ticker, wiki);
+
+        if(missingResults.getIfPresent(MissingResult.pageId(pageTitle1)) != null
+            || missingResults.getIfPresent(MissingResult.pageId(pageTitle2)) != null){
+            return new ArrayList<>();
+        }
 
         if(wiki.getLinksOnPage(pageTitle1).size() == 0 || wiki.whatLinksHere(pageTitle2).size() == 0){
             return new ArrayList<>();
@@ -417,7 +1109,9 @@ public class WikiMediator implements AutoCloseable {
 
     /**
      * Writes request data used in zeitgeist, trending, and peakLoad to JSON
-     * files in local.
+     * files in local, creating it if it does not exist, saves the pages in
+     * the cache in local/pageCacheSnapshot.dat so that the next mediator
+     * starts with them, and closes the disk cache of pages, if there is one.
      * Should be called whenever a thread running an instance of
      * {@code WikiMediator} is closed.
      *
@@ -426,47 +1120,92 @@ public class WikiMediator implements AutoCloseable {
     @Override
     public void close() {
         try {
+            Files.createDirectories(Paths.get("local"));
             Gson gson = new Gson();
             Writer zeitgeist = new FileWriter("local/zeitgeistData.json");
-            gson.toJson(requestHistory, zeitgeist);
+            gson.toJson(requestHistory.counts(), zeitgeist);
             zeitgeist.close();
 
+            if (zeitgeistCapacity > 0) {
+                Writer errors = new FileWriter("local/zeitgeistErrors.json");
+                gson.toJson(requestHistory.errors(), errors);
+                errors.close();
+            }
+
             Writer trending = new FileWriter("local/trendingData.json");
-            gson.toJson(queryTimes, trending);
+            gson.toJson(queryTimes.times(), trending);
             trending.close();
 
             Writer peakLoad = new FileWriter("local/peakLoadData.json");
-            gson.toJson(basicReqTimes, peakLoad);
+            gson.toJson(loadHistory.snapshot(), peakLoad);
             peakLoad.close();
+
+            writeCacheSnapshot();
+
+            if (diskCache != null) {
+                diskCache.close();
+            }
         } catch (IOException ioException) {
             ioException.printStackTrace();
         }
     }
 
     /**
-     * Checks to ensure that the representation invariant is not broken
+     * Reads the statistics of the page cache, so that its capacity and
+     * staleness interval can be tuned. Loads are the pages fetched from disk
+     * or Wikipedia because they were not in the cache, or were refreshed.
+     * This is not a request, so it is not counted by windowedPeakLoad.
+     *
+     * @return a snapshot of the hits, misses, loads and evictions of the
+     * page cache since this mediator was created
      */
-    private synchronized void checkRep() {
-        assert requestHistory.size() <= basicReqTimes.size();
+    public CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Reads the statistics of the search result cache. A search counts as a
+     * hit only if it was answered from the cache. Results that had gone
+     * stale, or were found with a smaller limit so that the query had to be
+     * searched for again, count as a miss.
+     * This is not a request, so it is not counted by windowedPeakLoad.
+     *
+     * @return a snapshot of the hits, misses and evictions of the search
+     * result cache since this mediator was created
+     */
+    public CacheStats searchCacheStats() {
+        CacheStats stats = searchCache.stats();
+        return new CacheStats(searchHits.sum(), searchMisses.sum(),
+            stats.loadSuccessCount(), stats.loadFailureCount(),
+            stats.totalLoadTime(), stats.evictionCount(RemovalCause.SIZE),
+            stats.evictionCount(RemovalCause.EXPIRED),
+            stats.evictionCount(RemovalCause.EXPLICIT));
+    }
 
-        assert cache.size() <= basicReqTimes.size();
+    /**
+     * @return the time from the clock, in milliseconds from January 1970 at
+     * midnight UTC
+     */
+    private long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(clock.read());
+    }
 
+    /**
+     * Checks to ensure that the representation invariant is not broken
+     */
+    private synchronized void checkRep() {
+        assert requestHistory.size() <= loadHistory.total();
 
-        int timeCount = 0;
-        for(String query : queryTimes.keySet()) {
-            timeCount += queryTimes.get(query).size();
-        }
+        assert cache.size() <= loadHistory.total();
 
-        assert timeCount <= basicReqTimes.size();
+        assert basicReqTimes.size() <= loadHistory.total();
 
-        for(String query : queryTimes.keySet()) {
-            assert requestHistory.containsKey(query);
-        }
 
+        assert queryTimes.total() <= loadHistory.total();
 
-        for(String query : queryTimes.keySet()) {
-            for(int i = 0; i < queryTimes.get(query).size(); i++) {
-                assert basicReqTimes.contains(queryTimes.get(query).get(i));
+        if (zeitgeistCapacity == 0) {
+            for (String query : queryTimes.times().keySet()) {
+                assert requestHistory.count(query) > 0;
             }
         }
 
@@ -1,14 +1,24 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.Expiry;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import cpen221.mp3.testing.ManualTicker;
 import cpen221.mp3.testing.TestT;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class Task1Tests {
 
@@ -307,5 +317,339 @@ public class Task1Tests {
         testBuffer.get("bravo");
     }
 
+    @Test
+    public void putSameIdReplaces() {
+        TestT first = new TestT("alpha");
+        TestT second = new TestT("alpha");
+        TestT bravo = new TestT("bravo");
+
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>(2, 30);
+
+        testBuffer.put(first);
+        testBuffer.put(bravo);
+        testBuffer.put(second);
+
+        Assert.assertEquals(2, testBuffer.size());
+        Assert.assertSame(second, testBuffer.get("alpha"));
+    }
+
+    @Test
+    public void largeBufferEvictsLeastRecentlyUsed() {
+        int capacity = 100_000;
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>(capacity, 30);
+
+        for (int i = 0; i < capacity; i++) {
+            testBuffer.put(new TestT("page" + i));
+        }
+        testBuffer.get("page0");
+
+        testBuffer.put(new TestT("extra"));
+
+        Assert.assertEquals(capacity, testBuffer.size());
+        Assert.assertEquals(new TestT("page0"), testBuffer.get("page0"));
+        Assert.assertFalse(testBuffer.touch("page1"));
+    }
+
+    @Test
+    public void weightBounded() {
+        TestT alpha = new TestT("alpha");
+        TestT bravo = new TestT("bravo");
+        TestT charlie = new TestT("charlie");
+        TestT tooHeavy = new TestT("abcdefghijklmnopqrstuvwxyz");
+
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(100).timeout(30).maximumWeight(12, x -> x.getValue().length()).build();
+
+        testBuffer.put(alpha);
+        testBuffer.put(bravo);
+        testBuffer.get("alpha");
+        testBuffer.put(charlie);
+
+        Assert.assertEquals(Set.of(alpha, charlie), testBuffer.getCurrentObjects());
+        Assert.assertFalse(testBuffer.put(tooHeavy));
+        Assert.assertEquals(Set.of(alpha, charlie), testBuffer.getCurrentObjects());
+    }
+
+    @Test
+    public void admissionKeepsPopularObjects() {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(10).timeout(30).admissionFilter(true).build();
+
+        for (int i = 0; i < 10; i++) {
+            testBuffer.put(new TestT("hot" + i));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                testBuffer.get("hot" + i);
+            }
+        }
+
+        for (int i = 0; i < 100; i++) {
+            testBuffer.put(new TestT("once" + i));
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 10; i++) {
+            if (testBuffer.getIfPresent("hot" + i) != null) {
+                hot++;
+            }
+        }
+        Assert.assertEquals(10, testBuffer.size());
+        Assert.assertTrue(hot >= 9);
+        Assert.assertNotNull(testBuffer.getIfPresent("once99"));
+    }
+
+    @Test
+    public void removalListenerSeesCause() {
+        List<String> removals = new ArrayList<>();
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(2).timeout(1)
+            .removalListener((t, cause) -> removals.add(t.id() + " " + cause)).build();
+
+        testBuffer.put(new TestT("alpha"));
+        testBuffer.put(new TestT("bravo"));
+        testBuffer.put(new TestT("alpha"));
+        testBuffer.put(new TestT("charlie"));
+        Assert.assertEquals(List.of("alpha " + RemovalCause.REPLACED, "bravo " + RemovalCause.SIZE), removals);
+
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        Assert.assertEquals(0, testBuffer.size());
+        Assert.assertEquals(Set.of("alpha " + RemovalCause.EXPIRED, "charlie " + RemovalCause.EXPIRED),
+            new HashSet<>(removals.subList(2, 4)));
+    }
+
+    @Test
+    public void snapshotRestoresOrderAndTimeLeft() {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>(3, 30);
+        testBuffer.put(new TestT("alpha"));
+        testBuffer.put(new TestT("bravo"));
+        testBuffer.put(new TestT("charlie"));
+        testBuffer.get("alpha");
+
+        List<FSFTBuffer.SnapshotEntry<TestT>> snapshot = testBuffer.snapshot();
+        List<String> ids = new ArrayList<>();
+        for (FSFTBuffer.SnapshotEntry<TestT> entry : snapshot) {
+            ids.add(entry.value().id());
+            Assert.assertTrue(entry.remainingMillis() > 29_000 && entry.remainingMillis() <= 30_000);
+        }
+        Assert.assertEquals(List.of("bravo", "charlie", "alpha"), ids);
+
+        FSFTBuffer<TestT> restored = new FSFTBuffer<>(2, 30);
+        Assert.assertEquals(2, restored.restore(snapshot));
+        restored.put(new TestT("delta"));
+        Assert.assertEquals(Set.of(new TestT("alpha"), new TestT("delta")), restored.getCurrentObjects());
+
+        restored.restore(List.of(new FSFTBuffer.SnapshotEntry<>(new TestT("echo"), 500),
+            new FSFTBuffer.SnapshotEntry<>(new TestT("foxtrot"), 0)));
+        Assert.assertEquals(Set.of(new TestT("delta"), new TestT("echo")), restored.getCurrentObjects());
+
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        Assert.assertEquals(Set.of(new TestT("delta")), restored.getCurrentObjects());
+    }
+
+    @Test
+    public void hitsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int hits = 1_000_000;
+
+        for (FSFTBuffer<TestT> testBuffer : List.of(new FSFTBuffer<TestT>(100, 30),
+            new FSFTBuffer.Builder<TestT>().capacity(100).timeout(30).bufferedReads(true).build(),
+            new FSFTBuffer.Builder<TestT>().capacity(100).timeout(30).admissionFilter(true).build())) {
+            String[] ids = new String[100];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = "page" + i;
+                testBuffer.put(new TestT(ids[i]));
+            }
+            for (int i = 0; i < hits; i++) {
+                testBuffer.getIfPresent(ids[i % ids.length]);
+            }
+
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < hits; i++) {
+                testBuffer.getIfPresent(ids[i % ids.length]);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            //allow for the bytes allocated by getThreadAllocatedBytes itself
+            Assert.assertTrue(allocated + " bytes allocated", allocated < 1024);
+        }
+    }
+
+    @Test
+    public void manualTickerTimesOut() {
+        ManualTicker ticker = new ManualTicker();
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(10).timeout(60).ticker(ticker).build();
+
+        testBuffer.put(new TestT("alpha"));
+        ticker.advance(30, TimeUnit.SECONDS);
+        testBuffer.put(new TestT("bravo"));
+        ticker.advance(30, TimeUnit.SECONDS);
+        Assert.assertTrue(testBuffer.touch("alpha"));
+
+        ticker.advance(31, TimeUnit.SECONDS);
+        Assert.assertEquals(Set.of(new TestT("alpha")), testBuffer.getCurrentObjects());
+
+        ticker.advance(30, TimeUnit.SECONDS);
+        Assert.assertEquals(0, testBuffer.size());
+    }
 
+    @Test
+    public void statsCountLookupsLoadsAndEvictions() {
+        ManualTicker ticker = new ManualTicker();
+        List<RemovalCause> causes = new ArrayList<>();
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(2).timeout(60).ticker(ticker)
+            .removalListener((t, cause) -> causes.add(cause)).build();
+
+        testBuffer.getOrLoad("alpha", id -> {
+            ticker.advance(5, TimeUnit.MILLISECONDS);
+            return new TestT(id);
+        });
+        testBuffer.getOrLoad("alpha", TestT::new);
+        testBuffer.getOrLoad("bravo", id -> null);
+        testBuffer.put(new TestT("bravo"));
+        testBuffer.put(new TestT("charlie"));
+        Assert.assertTrue(testBuffer.invalidate("charlie"));
+        Assert.assertFalse(testBuffer.invalidate("charlie"));
+        testBuffer.put(new TestT("delta"));
+        ticker.advance(61, TimeUnit.SECONDS);
+        Assert.assertNull(testBuffer.getIfPresent("delta"));
+
+        CacheStats stats = testBuffer.stats();
+        Assert.assertEquals(1, stats.hitCount());
+        Assert.assertEquals(3, stats.missCount());
+        Assert.assertEquals(0.25, stats.hitRate(), 1e-9);
+        Assert.assertEquals(1, stats.loadSuccessCount());
+        Assert.assertEquals(1, stats.loadFailureCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(5), stats.totalLoadTime());
+        Assert.assertEquals(1, stats.evictionCount(RemovalCause.SIZE));
+        Assert.assertEquals(1, stats.evictionCount(RemovalCause.EXPLICIT));
+        Assert.assertEquals(2, stats.evictionCount(RemovalCause.EXPIRED));
+        Assert.assertEquals(List.of(RemovalCause.SIZE, RemovalCause.EXPLICIT, RemovalCause.EXPIRED,
+            RemovalCause.EXPIRED), causes);
+    }
+
+    @Test
+    public void perEntryTimeToLive() {
+        ManualTicker ticker = new ManualTicker();
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(10).timeout(60).ticker(ticker).build();
+
+        Assert.assertTrue(testBuffer.put(new TestT("alpha"), Duration.ofSeconds(10)));
+        Assert.assertTrue(testBuffer.put(new TestT("bravo")));
+        Assert.assertTrue(testBuffer.put(new TestT("charlie"), Duration.ofSeconds(120)));
+        Assert.assertTrue(testBuffer.put(new TestT("delta"), Duration.ofSeconds(5)));
+        Assert.assertFalse(testBuffer.put(new TestT("echo"), Duration.ZERO));
+
+        ticker.advance(6, TimeUnit.SECONDS);
+        Assert.assertEquals(3, testBuffer.size());
+        Assert.assertTrue(testBuffer.touch("alpha"));
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Set.of(new TestT("alpha"), new TestT("bravo"), new TestT("charlie")),
+            testBuffer.getCurrentObjects());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertEquals(Set.of(new TestT("bravo"), new TestT("charlie")), testBuffer.getCurrentObjects());
+
+        //a plain put gives the object the timeout of the buffer again
+        testBuffer.put(new TestT("charlie"));
+        ticker.advance(61, TimeUnit.SECONDS);
+        Assert.assertEquals(0, testBuffer.size());
+    }
+
+    @Test
+    public void expiryChoosesTimeToLive() {
+        ManualTicker ticker = new ManualTicker();
+        Expiry<TestT> expiry = new Expiry<>() {
+            @Override
+            public long expireAfterCreate(TestT t, long currentTime) {
+                return TimeUnit.SECONDS.toNanos(t.id().length());
+            }
+
+            @Override
+            public long expireAfterRead(TestT t, long currentTime, long currentDuration) {
+                return Math.max(currentDuration, TimeUnit.SECONDS.toNanos(3));
+            }
+        };
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(10).timeout(60).ticker(ticker).expiry(expiry).build();
+
+        for(String id : List.of("ab", "abcd", "abcdefgh")){
+            testBuffer.put(new TestT(id));
+        }
+
+        ticker.advance(3, TimeUnit.SECONDS);
+        Assert.assertEquals(2, testBuffer.size());
+        Assert.assertNotNull(testBuffer.getIfPresent("abcd"));
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        Assert.assertNotNull(testBuffer.getIfPresent("abcd"));
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        Assert.assertEquals(Set.of(new TestT("abcd"), new TestT("abcdefgh")), testBuffer.getCurrentObjects());
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        Assert.assertEquals(0, testBuffer.size());
+    }
+
+    @Test
+    public void bulkPutAndGet() {
+        List<RemovalCause> causes = new ArrayList<>();
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(3).removalListener((t, cause) -> causes.add(cause)).build();
+
+        Assert.assertEquals(4, testBuffer.putAll(List.of(new TestT("alpha"), new TestT("bravo"),
+            new TestT("charlie"), new TestT("delta"))));
+        Assert.assertEquals(List.of(RemovalCause.SIZE), causes);
+
+        Map<String, TestT> found = testBuffer.getAll(List.of("delta", "alpha", "bravo"));
+        Assert.assertEquals(List.of("delta", "bravo"), new ArrayList<>(found.keySet()));
+        Assert.assertEquals(new TestT("bravo"), found.get("bravo"));
+        Assert.assertEquals(2, testBuffer.stats().hitCount());
+        Assert.assertEquals(1, testBuffer.stats().missCount());
+    }
+
+    @Test
+    public void bulkLoadCallsLoaderOnce() {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>(10, 60);
+        testBuffer.put(new TestT("alpha"));
+        List<Set<String>> batches = new ArrayList<>();
+
+        Map<String, TestT> loaded = testBuffer.getAllOrLoad(List.of("alpha", "bravo", "charlie", "bravo"), ids -> {
+            batches.add(Set.copyOf(ids));
+            return Map.of("bravo", new TestT("bravo"));
+        });
+
+        Assert.assertEquals(List.of(Set.of("bravo", "charlie")), batches);
+        Assert.assertEquals(List.of("alpha", "bravo"), new ArrayList<>(loaded.keySet()));
+        Assert.assertEquals(Set.of(new TestT("alpha"), new TestT("bravo")), testBuffer.getCurrentObjects());
+        Assert.assertEquals(1, testBuffer.stats().loadSuccessCount());
+        Assert.assertEquals(1, testBuffer.stats().loadFailureCount());
+
+        testBuffer.getAllOrLoad(List.of("alpha", "bravo"), ids -> {
+            throw new AssertionError("nothing is missing");
+        });
+
+        try {
+            testBuffer.getAllOrLoad(List.of("delta"), ids -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (IllegalStateException ise) {
+            //the loader's exception reaches the caller
+        }
+        Assert.assertEquals(2, testBuffer.size());
+    }
 }
@@ -1,5 +1,6 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.ConcurrentFSFTBuffer;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
 import cpen221.mp3.testing.ConcurrentBufferTester;
 import cpen221.mp3.testing.ConcurrentGet;
@@ -12,7 +13,10 @@ import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Task2Tests {
 
@@ -278,4 +282,189 @@ public class Task2Tests {
         Assert.assertEquals(Set.of(A), testBuffer.getCurrentObjects());
     }
 
+    @Test
+    public void segmentedBufferManyThreads() throws InterruptedException {
+        ConcurrentFSFTBuffer<TestT> testBuffer = new ConcurrentFSFTBuffer<>(10_000, 30, 8);
+
+        List<Thread> threadList = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t * 1000;
+            Thread thread = new Thread(() -> {
+                for (int i = offset; i < offset + 1000; i++) {
+                    testBuffer.put(new TestT("page" + i));
+                    testBuffer.get("page" + i);
+                }
+            });
+            threadList.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        Assert.assertEquals(8000, testBuffer.size());
+        Assert.assertEquals(new TestT("page4321"), testBuffer.get("page4321"));
+        Assert.assertTrue(testBuffer.touch("page7999"));
+    }
+
+    @Test
+    public void segmentedBufferCapacity() {
+        ConcurrentFSFTBuffer<TestT> testBuffer = new ConcurrentFSFTBuffer<>(64, 30, 4);
+
+        for (int i = 0; i < 1000; i++) {
+            testBuffer.put(new TestT("page" + i));
+        }
+
+        Assert.assertTrue(testBuffer.size() <= 64);
+        Assert.assertEquals(new TestT("page999"), testBuffer.get("page999"));
+    }
+
+    @Test
+    public void segmentedBufferBulkOperations() {
+        ConcurrentFSFTBuffer<TestT> testBuffer = new ConcurrentFSFTBuffer<>(1000, 30, 8);
+        List<TestT> pages = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pages.add(new TestT("page" + i));
+            ids.add("page" + i);
+        }
+
+        Assert.assertEquals(50, testBuffer.putAll(pages.subList(0, 50)));
+        Assert.assertEquals(ids.subList(0, 50), new ArrayList<>(testBuffer.getAll(ids).keySet()));
+
+        AtomicInteger batches = new AtomicInteger();
+        Map<String, TestT> all = testBuffer.getAllOrLoad(ids, missing -> {
+            batches.incrementAndGet();
+            Map<String, TestT> loaded = new HashMap<>();
+            missing.forEach(id -> loaded.put(id, new TestT(id)));
+            return loaded;
+        });
+
+        Assert.assertEquals(1, batches.get());
+        Assert.assertEquals(ids, new ArrayList<>(all.keySet()));
+        Assert.assertEquals(100, testBuffer.size());
+    }
+
+    @Test
+    public void bufferedReadsKeepRecency() {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(2).timeout(30).bufferedReads(true).build();
+
+        TestT alpha = new TestT("alpha");
+        TestT bravo = new TestT("bravo");
+        TestT charlie = new TestT("charlie");
+
+        testBuffer.put(alpha);
+        testBuffer.put(bravo);
+        testBuffer.get("alpha");
+        testBuffer.put(charlie);
+
+        Assert.assertEquals(Set.of(alpha, charlie), testBuffer.getCurrentObjects());
+    }
+
+    @Test
+    public void bufferedReadsManyThreads() throws InterruptedException {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(100).timeout(30).bufferedReads(true).build();
+        for (int i = 0; i < 100; i++) {
+            testBuffer.put(new TestT("page" + i));
+        }
+
+        List<Thread> threadList = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String id = "page" + (i % 100);
+                    Assert.assertEquals(id, testBuffer.get(id).id());
+                    if (i % 1000 == 0) {
+                        testBuffer.put(new TestT(id));
+                    }
+                }
+            });
+            threadList.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        Assert.assertEquals(100, testBuffer.size());
+    }
+
+    @Test
+    public void getOrLoadSingleFlight() throws InterruptedException {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>();
+        AtomicInteger loads = new AtomicInteger();
+        CyclicBarrier barrier = new CyclicBarrier(8);
+        Set<TestT> results = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        List<Thread> threadList = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    e.printStackTrace();
+                }
+                results.add(testBuffer.getOrLoad("alpha", id -> {
+                    loads.incrementAndGet();
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    return new TestT(id);
+                }));
+            });
+            threadList.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals(new TestT("alpha"), testBuffer.getIfPresent("alpha"));
+    }
+
+    @Test
+    public void getOrLoadAsync() {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer<>();
+
+        CompletableFuture<TestT> future = testBuffer.getOrLoadAsync("alpha", TestT::new,
+            Executors.newSingleThreadExecutor());
+
+        Assert.assertEquals(new TestT("alpha"), future.join());
+        Assert.assertNull(testBuffer.getIfPresent("bravo"));
+        Assert.assertNull(testBuffer.getOrLoad("bravo", id -> null));
+        Assert.assertEquals(1, testBuffer.size());
+    }
+
+    @Test
+    public void refreshAheadKeepsServingOldValue() throws InterruptedException {
+        FSFTBuffer<TestT> testBuffer = new FSFTBuffer.Builder<TestT>()
+            .capacity(10).timeout(2).refreshAfter(0.5, Runnable::run).build();
+        AtomicInteger loads = new AtomicInteger();
+        TestT first = new TestT("alpha");
+
+        Assert.assertSame(first, testBuffer.getOrLoad("alpha", id -> first));
+        Assert.assertSame(first, testBuffer.getOrLoad("alpha", id -> new TestT(id)));
+
+        Thread.sleep(1200);
+        Assert.assertSame(first, testBuffer.getOrLoad("alpha", id -> {
+            loads.incrementAndGet();
+            return new TestT(id);
+        }));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertNotSame(first, testBuffer.getIfPresent("alpha"));
+
+        //the refresh restarted the timeout
+        Thread.sleep(1200);
+        Assert.assertNotNull(testBuffer.getIfPresent("alpha"));
+    }
+
 }
@@ -1,18 +1,49 @@
 package cpen221.mp3;
 
+import com.google.gson.Gson;
+import cpen221.mp3.testing.ManualTicker;
+import cpen221.mp3.wikibackend.DumpWikiBackend;
+import cpen221.mp3.wikibackend.SyntheticWikiBackend;
+import cpen221.mp3.wikimediator.LoadHistogram;
+import cpen221.mp3.wikimediator.Page;
+import cpen221.mp3.wikimediator.PageDiskCache;
+import cpen221.mp3.wikimediator.PageStore;
+import cpen221.mp3.wikimediator.RequestLog;
+import cpen221.mp3.wikimediator.RequestRanking;
+import cpen221.mp3.wikimediator.SearchResult;
+import cpen221.mp3.wikimediator.TrendingCounts;
 import cpen221.mp3.wikimediator.WikiMediator;
 import org.fastily.jwiki.core.Wiki;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 
 public class Task3Tests {
     // TODO: Come up with and test edge cases
 
+    // every mediator saves its cache when closed, and the next one starts with it
+    @Before
+    @After
+    public void deleteCacheSnapshot() {
+        new File("local/pageCacheSnapshot.dat").delete();
+    }
+
     @Test
     public void searchTest() {
         WikiMediator mediator = new WikiMediator(10, 30);
@@ -20,6 +51,78 @@ public class Task3Tests {
             mediator.search("Obama", 3));
     }
 
+    @Test
+    public void searchTest_cached() {
+        WikiMediator mediator = new WikiMediator(10, 30);
+        List<String> five = mediator.search("Obama", 5);
+        Assert.assertEquals(five.subList(0, 3), mediator.search("Obama", 3));
+        Assert.assertEquals(1, mediator.searchCacheStats().hitCount());
+    }
+
+    @Test
+    public void syntheticWikiRequestsAreCached() {
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(100, 3, Duration.ZERO);
+        WikiMediator mediator = new WikiMediator(10, 30, wiki);
+
+        Assert.assertEquals(wiki.getPageText("Alpha 0"), mediator.getPage("Alpha 0"));
+        long requests = wiki.requestCount();
+        mediator.getPage("Alpha 0");
+        Assert.assertEquals(List.of("Alpha 0", "Alpha 26"), mediator.search("alpha", 2));
+        mediator.search("alpha", 1);
+        Assert.assertEquals(requests + 1, wiki.requestCount());
+
+        // missing pages and empty searches are only asked for once
+        Assert.assertEquals("", mediator.getPage("Omega"));
+        Assert.assertEquals("", mediator.getPage("Omega"));
+        Assert.assertEquals(List.of(), mediator.search("omega", 5));
+        Assert.assertEquals(List.of(), mediator.search("omega", 5));
+        Assert.assertEquals(requests + 3, wiki.requestCount());
+    }
+
+    @Test
+    public void syntheticWikiBatchesCostOneRequestPerFiftyPages() {
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(200, 3, Duration.ZERO);
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            titles.add(wiki.title(i));
+        }
+
+        Assert.assertEquals(120, wiki.getLinksOnPages(titles).size());
+        Assert.assertEquals(3, wiki.requestCount());
+        wiki.getPageTexts(titles.subList(0, 50));
+        Assert.assertEquals(4, wiki.requestCount());
+        wiki.getPageTexts(List.of());
+        Assert.assertEquals(4, wiki.requestCount());
+    }
+
+    @Test
+    public void searchWithLargerLimitIsAMiss() {
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(100, 3, Duration.ZERO);
+        WikiMediator mediator = new WikiMediator(10, 30, wiki);
+
+        mediator.search("alpha", 1);
+        mediator.search("alpha", 1);
+        mediator.search("alpha", 2);
+        Assert.assertEquals(1, mediator.searchCacheStats().hitCount());
+        Assert.assertEquals(2, mediator.searchCacheStats().missCount());
+    }
+
+    @Test
+    public void searchResultAnswersSmallerLimits() {
+        SearchResult result = new SearchResult("Obama", 3, List.of("a", "b", "c"));
+        Assert.assertTrue(result.answers(2));
+        Assert.assertTrue(result.answers(3));
+        Assert.assertFalse(result.answers(4));
+        Assert.assertFalse(result.answers(-1));
+        Assert.assertEquals(List.of("a", "b"), result.getTitles(2));
+
+        // fewer results than the limit means there are no more to find
+        SearchResult all = new SearchResult("Obama", 5, List.of("a", "b"));
+        Assert.assertTrue(all.answers(10));
+        Assert.assertTrue(all.answers(-1));
+        Assert.assertEquals(List.of("a", "b"), all.getTitles(10));
+    }
+
     @Test
     public void searchTest_Empty() {
         WikiMediator mediator = new WikiMediator(10, 30);
@@ -75,6 +178,18 @@ public class Task3Tests {
         Assert.assertEquals("", mediator.getPage(" "));
     }
 
+    @Test
+    public void pageTest_missingIsRemembered() {
+        WikiMediator mediator = new WikiMediator(10, 30);
+        Assert.assertEquals("", mediator.getPage("Akjshdfkjahsdouifhjweojncuh"));
+        Assert.assertEquals("", mediator.getPage("Akjshdfkjahsdouifhjweojncuh"));
+
+        // the second request is answered without looking the page up again
+        Assert.assertEquals(1, mediator.cacheStats().missCount());
+        Assert.assertEquals(1, mediator.cacheStats().loadFailureCount());
+        Assert.assertEquals(0, mediator.cacheStats().loadSuccessCount());
+    }
+
     @Test
     public void pageTest_cache() {
         WikiMediator mediator = new WikiMediator(10, 30);
@@ -202,6 +317,98 @@ public class Task3Tests {
             mediator.zeitgeist(10));
     }
 
+    @Test
+    public void requestRankingKeepsOrder() {
+        RequestRanking ranking = new RequestRanking(Map.of("Cat", 2, "Dog", 2, "Fish", 5));
+        ranking.increment("Ant");
+        ranking.increment("Cat");
+        ranking.increment("Bee");
+        ranking.increment("Ant");
+
+        Assert.assertEquals(List.of("Fish", "Cat", "Dog", "Ant", "Bee"), ranking.top(10));
+        Assert.assertEquals(List.of("Fish", "Cat"), ranking.top(2));
+        Assert.assertEquals(List.of(), ranking.top(0));
+
+        for (int i = 0; i < 3; i++) {
+            ranking.increment("Dog");
+        }
+        Assert.assertEquals(List.of("Fish", "Dog", "Cat"), ranking.top(3));
+        Assert.assertEquals(5, ranking.count("Dog"));
+        Assert.assertEquals(Map.of("Ant", 2, "Bee", 1, "Cat", 3, "Dog", 5, "Fish", 5), ranking.counts());
+    }
+
+    @Test
+    public void boundedRankingKeepsHeavyHitters() {
+        RequestRanking ranking = new RequestRanking(4);
+        for (int i = 0; i < 5; i++) {
+            ranking.increment("A");
+        }
+        for (int i = 0; i < 4; i++) {
+            ranking.increment("B");
+        }
+        for (int i = 0; i < 6; i++) {
+            ranking.increment("n" + i);
+        }
+
+        Assert.assertEquals(4, ranking.size());
+        Assert.assertEquals(15, ranking.total());
+        Assert.assertEquals(List.of("A", "B"), ranking.top(2));
+        Assert.assertEquals(5, ranking.count("A"));
+        Assert.assertEquals(0, ranking.error("A"));
+        Assert.assertEquals(3, ranking.count("n5"));
+        Assert.assertEquals(2, ranking.error("n5"));
+        Assert.assertEquals(0, ranking.count("n0"));
+        Assert.assertEquals(3, ranking.error("n0"));
+        Assert.assertEquals(3, ranking.maximumError());
+        Assert.assertTrue(ranking.maximumError() <= ranking.total() / ranking.capacity());
+
+        RequestRanking restored = new RequestRanking(ranking.counts(), ranking.errors(), 3);
+        Assert.assertEquals(List.of("A", "B", "n5"), restored.top(10));
+        Assert.assertEquals(2, restored.error("n5"));
+        Assert.assertEquals(3, restored.maximumError());
+    }
+
+    @Test
+    public void trendingCountsWindowsAndRetire() {
+        TrendingCounts counts = new TrendingCounts(1000, 10_000);
+        counts.record("Cats", 1_000);
+        counts.record("Dogs", 1_500);
+        counts.record("Dogs", 4_200);
+        counts.record("Cats", 4_900);
+        counts.record("Cats", 3_100);
+        counts.record("Dogs", 4_300);
+
+        Assert.assertEquals(Map.of("Cats", 3, "Dogs", 3), counts.countsWithin(5_000, 5_000));
+        Assert.assertEquals(Map.of("Cats", 2, "Dogs", 2), counts.countsWithin(3_000, 5_000));
+        Assert.assertEquals(Map.of("Cats", 1, "Dogs", 2), counts.countsWithin(1_500, 5_000));
+        Assert.assertEquals(Map.of(), counts.countsWithin(0, 5_000));
+        Assert.assertEquals(List.of(1_000L, 3_000L, 4_000L), counts.times().get("Cats"));
+
+        // the requests at 1 and 1.5 seconds are past the horizon at 12 seconds
+        Assert.assertEquals(Map.of("Cats", 2, "Dogs", 2), counts.countsWithin(60_000, 12_000));
+        Assert.assertEquals(4, counts.total());
+
+        counts.record("Owl", 20_000);
+        Assert.assertEquals(Map.of("Owl", 1), counts.countsWithin(60_000, 20_000));
+        Assert.assertEquals(1, counts.size());
+    }
+
+    @Test
+    public void trendingCountsRetireIdleKeysOnRecord() {
+        TrendingCounts counts = new TrendingCounts(1000, 10_000);
+        for (int i = 0; i < 100; i++) {
+            counts.record("Once " + i, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            counts.record("Later", 20_000 + i);
+        }
+
+        // every key requested once has been retired without counting
+        Assert.assertEquals(1, counts.size());
+        Assert.assertEquals(100, counts.total());
+        Assert.assertEquals(0, counts.count("Once 0"));
+    }
+
     @Test
     public void trendingTest() {
         WikiMediator mediator = new WikiMediator(10, 30);
@@ -333,6 +540,151 @@ public class Task3Tests {
         Assert.assertEquals(List.of("Demon Cat"), mediator.trending(2, 10));
     }
 
+    @Test
+    public void requestLogPeaksMatchEveryWindow() {
+        RequestLog log = new RequestLog(30_000);
+        Random random = new Random(221);
+        List<Long> times = new ArrayList<>();
+        long time = 0;
+        for (int i = 0; i < 20_000; i++) {
+            // mostly in order, with a clock that sometimes goes back a little
+            time += random.nextInt(20) == 0 ? -random.nextInt(50) : random.nextInt(40);
+            times.add(time);
+            log.add(time);
+        }
+        Collections.sort(times);
+
+        Assert.assertEquals(times, log.times());
+        for (long window : new long[] {0, 1, 500, 30_000, 100_000}) {
+            int peak = 0;
+            for (int start = 0, end = 0; start < times.size(); start++) {
+                while (end < times.size() && times.get(end) < times.get(start) + window) {
+                    end++;
+                }
+                peak = Math.max(peak, end - start);
+            }
+            Assert.assertEquals(peak, log.peak(window));
+        }
+    }
+
+    @Test
+    public void loadHistogramDownsamplesToMinutes() {
+        LoadHistogram histogram = new LoadHistogram(60);
+        for (int i = 0; i < 5; i++) {
+            histogram.add(i * 100);
+        }
+        for (int i = 0; i < 3; i++) {
+            histogram.add(10_000 + i);
+        }
+        Assert.assertEquals(5, histogram.peak(1));
+        Assert.assertEquals(8, histogram.peak(11));
+        Assert.assertEquals(5, histogram.peak(10));
+
+        // seconds 0 and 10 are past the horizon, and only counted in minute 0
+        histogram.add(100_000);
+        histogram.add(100_500);
+        Assert.assertEquals(10, histogram.total());
+        Assert.assertEquals(2, histogram.peak(1));
+        Assert.assertEquals(4, histogram.peak(30));
+        Assert.assertEquals(8, histogram.peak(60));
+        Assert.assertEquals(10, histogram.peak(120));
+
+        Gson gson = new Gson();
+        LoadHistogram.Snapshot snapshot = gson.fromJson(gson.toJson(histogram.snapshot()),
+            LoadHistogram.Snapshot.class);
+        for (int horizon : new int[] {60, 600}) {
+            LoadHistogram restored = new LoadHistogram(horizon, snapshot);
+            Assert.assertEquals(10, restored.total());
+            Assert.assertEquals(2, restored.peak(1));
+            Assert.assertEquals(8, restored.peak(60));
+        }
+    }
+
+    @Test
+    public void windowedPeakLoadSpansRestart() {
+        new File("local").mkdirs();
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(100, 3, Duration.ZERO);
+        ManualTicker ticker = new ManualTicker(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+            + TimeUnit.HOURS.toNanos(1));
+        WikiMediator mediator = new WikiMediator(10, 30, Long.MAX_VALUE, 0, 0, ticker, wiki);
+        for (int i = 0; i < 200; i++) {
+            mediator.getPage(wiki.title(i % 100));
+        }
+        mediator.close();
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        WikiMediator mediator1 = new WikiMediator(10, 30, Long.MAX_VALUE, 0, 0, ticker, wiki);
+        for (int i = 0; i < 200; i++) {
+            mediator1.getPage(wiki.title(i % 100));
+        }
+        Assert.assertEquals(401, mediator1.windowedPeakLoad());
+        Assert.assertEquals(402, mediator1.windowedPeakLoad(31));
+        Assert.assertEquals(403, mediator1.windowedPeakLoad());
+
+        new File("local/zeitgeistData.json").delete();
+        new File("local/trendingData.json").delete();
+        new File("local/peakLoadData.json").delete();
+    }
+
+    @Test
+    public void pageFromDiskKeepsRemainingStaleness() {
+        new File("local/pageCache.dat").delete();
+        new File("local/pageCacheSnapshot.dat").delete();
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(100, 3, Duration.ZERO);
+        ManualTicker ticker = new ManualTicker(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+        WikiMediator mediator = new WikiMediator(1, 30, Long.MAX_VALUE, 30, 1 << 20, ticker, wiki);
+
+        mediator.getPage(wiki.title(0));
+        ticker.advance(20, TimeUnit.SECONDS);
+        for (int i = 1; i < 10; i++) {
+            mediator.getPage(wiki.title(i));
+        }
+        long requests = wiki.requestCount();
+        mediator.getPage(wiki.title(0));
+        Assert.assertEquals(requests, wiki.requestCount());
+
+        // fetched 35 seconds ago, so stale in memory even though it was just read from disk
+        ticker.advance(15, TimeUnit.SECONDS);
+        mediator.getPage(wiki.title(0));
+        Assert.assertEquals(requests + 1, wiki.requestCount());
+        mediator.close();
+
+        new File("local/pageCache.dat").delete();
+        new File("local/pageCacheSnapshot.dat").delete();
+        new File("local/zeitgeistData.json").delete();
+        new File("local/trendingData.json").delete();
+        new File("local/peakLoadData.json").delete();
+    }
+
+    @Test
+    public void pageFromDiskIsRefreshedFromWikipedia() throws InterruptedException {
+        new File("local/pageCache.dat").delete();
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(100, 3, Duration.ZERO);
+        ManualTicker ticker = new ManualTicker(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+        WikiMediator mediator = new WikiMediator(1, 30, Long.MAX_VALUE, 30, 1 << 20, ticker, wiki);
+
+        mediator.getPage(wiki.title(0));
+        mediator.getPage(wiki.title(1));
+        long requests = wiki.requestCount();
+        mediator.getPage(wiki.title(0));
+        Assert.assertEquals(requests, wiki.requestCount());
+
+        // due to be refreshed, which must not read back the same copy from disk
+        ticker.advance(25, TimeUnit.SECONDS);
+        mediator.getPage(wiki.title(0));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (wiki.requestCount() == requests && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(requests + 1, wiki.requestCount());
+        mediator.close();
+
+        new File("local/pageCache.dat").delete();
+        new File("local/zeitgeistData.json").delete();
+        new File("local/trendingData.json").delete();
+        new File("local/peakLoadData.json").delete();
+    }
+
     @Test
     public void windowedPeakLoadTest() {
         WikiMediator mediator = new WikiMediator(10, 30);
@@ -578,6 +930,144 @@ public class Task3Tests {
         }
     }
 
+    @Test
+    public void offHeapPageText() {
+        PageStore store = new PageStore(true);
+        String text = "Some text about Canada, \u00e9t\u00e9 \u2603. ".repeat(1000);
+        Page page = new Page("Canada", text, store);
+        Page empty = new Page("Empty", "", store);
+
+        Assert.assertEquals(text, page.getText());
+        Assert.assertEquals("", empty.getText());
+        Assert.assertTrue(page.byteSize() < text.length());
+        Assert.assertEquals(page.byteSize(), store.usedBytes());
+    }
+
+    @Test
+    public void offHeapPageStoreReusesSlabs() {
+        PageStore store = new PageStore(false);
+        String text = "x".repeat(PageStore.SLAB_SIZE / 4);
+        for (int i = 0; i < 64; i++) {
+            PageStore.Handle handle = store.store(text + i);
+            Assert.assertEquals(text + i, store.load(handle));
+            store.release(handle);
+        }
+        Assert.assertEquals(0, store.usedBytes());
+
+        String large = "y".repeat(PageStore.SLAB_SIZE + 1);
+        PageStore.Handle handle = store.store(large);
+        Assert.assertEquals(large, store.load(handle));
+    }
+
+    @Test
+    public void offHeapPageStoreReusesFreedSpace() {
+        PageStore store = new PageStore(false);
+        String text = "z".repeat(PageStore.SLAB_SIZE / 8);
+        PageStore.Handle pinned = store.store("pinned");
+        List<PageStore.Handle> handles = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            handles.add(store.store(text + i));
+            if (handles.size() == 4) {
+                store.release(handles.remove(0));
+            }
+        }
+
+        // the text still in use does not keep its slab from being refilled
+        Assert.assertEquals(PageStore.SLAB_SIZE, store.reservedBytes());
+        Assert.assertEquals("pinned", store.load(pinned));
+        for (PageStore.Handle handle : handles) {
+            store.release(handle);
+        }
+        store.release(pinned);
+        store.release(pinned);
+        Assert.assertNull(store.load(pinned));
+        Assert.assertEquals(0, store.usedBytes());
+    }
+
+    @Test
+    public void diskCacheCompactsAndReopens() throws IOException {
+        Path file = Files.createTempFile("pageCache", ".dat");
+        String text = "text ".repeat(100);
+
+        try (PageDiskCache disk = new PageDiskCache(file, 30, 10_000)) {
+            for (int i = 0; i < 100; i++) {
+                disk.put("page" + i, text + i);
+            }
+            Assert.assertTrue(disk.fileSize() <= 10_000);
+            Assert.assertNull(disk.get("page0"));
+            Assert.assertEquals(text + 99, disk.get("page99"));
+        }
+
+        try (PageDiskCache disk = new PageDiskCache(file, 30, 10_000)) {
+            Assert.assertEquals(text + 99, disk.get("page99"));
+            Assert.assertNull(disk.get("page0"));
+        }
+
+        try (PageDiskCache disk = new PageDiskCache(file, 30, 10_000)) {
+            disk.putLater("later", text, System.currentTimeMillis());
+            Assert.assertEquals(text, disk.get("later"));
+            disk.flush();
+            Assert.assertEquals(text, disk.get("later"));
+        }
+
+        try (PageDiskCache disk = new PageDiskCache(file, 30, 10_000)) {
+            Assert.assertEquals(text, disk.get("later"));
+        }
+
+        try (PageDiskCache disk = new PageDiskCache(file, 0, 10_000)) {
+            disk.put("stale", text);
+            Thread.sleep(10);
+            Assert.assertNull(disk.get("stale"));
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void dumpBackendServesIngestedPages() throws IOException {
+        Path directory = Files.createTempDirectory("dumpStore");
+        Path dump = directory.resolve("dump.xml");
+        Files.writeString(dump, "<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\">\n"
+            + "<page><title>Dog</title><ns>0</ns><revision><text>A [[cat|feline]] and a [[Wolf#Range]] "
+            + "&amp; [[Fish]].</text></revision></page>\n"
+            + "<page><title>Cat</title><ns>0</ns><revision><text>Chases [[Dog]].</text></revision></page>\n"
+            + "<page><title>Wolf</title><ns>0</ns><revision><text>See [[dog]] and [[Cat]].</text></revision></page>\n"
+            + "<page><title>Dogma</title><ns>0</ns><revision><text>Belief.</text></revision></page>\n"
+            + "<page><title>Doggy</title><ns>0</ns><redirect title=\"Dog\" /><revision><text>#REDIRECT [[Dog]]"
+            + "</text></revision></page>\n"
+            + "</mediawiki>\n");
+        Path store = directory.resolve("store");
+
+        // a run length of 2 sorts the titles and links through files
+        try (DumpWikiBackend wiki = DumpWikiBackend.ingest(dump, store, 2)) {
+            Assert.assertEquals(5, wiki.pageCount());
+            Assert.assertEquals("A [[cat|feline]] and a [[Wolf#Range]] & [[Fish]].", wiki.getPageText("Dog"));
+            Assert.assertEquals("", wiki.getPageText("Fish"));
+            Assert.assertEquals(List.of("Cat", "Wolf", "Fish"), wiki.getLinksOnPage("Dog"));
+            Assert.assertEquals(List.of("Cat", "Doggy", "Wolf"), wiki.whatLinksHere("Dog"));
+            Assert.assertEquals(List.of("Dog", "Dogma"), wiki.search("Dog", 5));
+            Assert.assertEquals(List.of("Dog", "Dogma"), wiki.search("dog", -1));
+            // a query that starts in the middle of a word finds nothing
+            Assert.assertEquals(List.of(), wiki.search("gma", -1));
+            Assert.assertEquals(wiki.getPageText("Dog"), wiki.getPageText("Doggy"));
+            Assert.assertEquals(List.of("Cat", "Wolf", "Fish"), wiki.getLinksOnPage("Doggy"));
+            Assert.assertTrue(wiki.exists("Wolf"));
+            Assert.assertTrue(wiki.exists("Doggy"));
+            Assert.assertFalse(wiki.exists("Fish"));
+        }
+
+        // ingesting again replaces the store and deletes the old data files
+        DumpWikiBackend.ingest(dump, store).close();
+        try (Stream<Path> files = Files.list(store)) {
+            Assert.assertEquals(6, files.count());
+        }
+        try (DumpWikiBackend wiki = new DumpWikiBackend(store)) {
+            Assert.assertEquals("Chases [[Dog]].", wiki.getPageText("Cat"));
+            Assert.assertEquals(List.of("Dog", "Wolf"), wiki.whatLinksHere("Cat"));
+        }
+    }
 }
 
 /*
@@ -1,13 +1,17 @@
 package cpen221.mp3;
 
+import cpen221.mp3.wikibackend.SyntheticWikiBackend;
 import cpen221.mp3.wikimediator.WikiMediator;
 import org.fastily.jwiki.core.Wiki;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.sql.Time;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 public class Task5Tests {
@@ -23,6 +27,19 @@ public class Task5Tests {
         Assert.assertEquals(expected, result);
     }
 
+    @Test
+    public void SyntheticWiki() throws TimeoutException{
+        // every page only links to the next one, so the path has to walk along them
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(10, 1, Duration.ZERO);
+        WikiMediator test = new WikiMediator(300,300, wiki);
+
+        List<String> expected = new ArrayList<>(List.of("Alpha 0", "Bravo 1", "Charlie 2"));
+
+        List<String> result = test.shortestPath("Alpha 0", "Charlie 2", 30);
+
+        Assert.assertEquals(expected, result);
+    }
+
     @Test
     public void TwoSteps() throws TimeoutException{
         WikiMediator test = new WikiMediator(300,300);
@@ -62,6 +79,31 @@ public class Task5Tests {
         test.shortestPath("United States", "Travis Scott", 5);
     }
 
+    @Test
+    public void timeoutBetweenBatches() {
+        // the same wiki without latency, to find a page that is not within two links of the start
+        SyntheticWikiBackend map = new SyntheticWikiBackend(20000, 50, Duration.ZERO);
+        Set<String> near = new HashSet<>(map.getLinksOnPage("Alpha 0"));
+        for (String title : new ArrayList<>(near)) {
+            near.addAll(map.getLinksOnPage(title));
+        }
+        int far = 1;
+        while (near.contains(map.title(far))) {
+            far++;
+        }
+
+        // the second layer takes about 50 requests of 100 ms each
+        SyntheticWikiBackend wiki = new SyntheticWikiBackend(20000, 50, Duration.ofMillis(100));
+        WikiMediator test = new WikiMediator(300, 300, wiki);
+        long start = System.nanoTime();
+        try {
+            test.shortestPath("Alpha 0", map.title(far), 1);
+            Assert.fail();
+        } catch (TimeoutException te) {
+            Assert.assertTrue(System.nanoTime() - start < Duration.ofSeconds(3).toNanos());
+        }
+    }
+
     @Test
     public void noChildren() throws TimeoutException{
         WikiMediator test = new WikiMediator(300,300);